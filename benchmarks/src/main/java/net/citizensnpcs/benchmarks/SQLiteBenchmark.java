@@ -0,0 +1,89 @@
+package net.citizensnpcs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.citizensnpcs.storage.AsyncStorageWriter;
+import net.citizensnpcs.storage.BinaryStorage;
+import net.citizensnpcs.storage.SQLiteNPCDataStore;
+
+/**
+ * Measures saving every NPC to the SQLite backend and reading them back, using the same synthetic NPC data as
+ * {@link StorageBenchmark}. Loading reads and decodes every row, which is the part of
+ * {@link SQLiteNPCDataStore#parseAll()} that doesn't need a running server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SQLiteBenchmark {
+    private File database;
+    private File folder;
+    @Param({ "1000", "10000", "100000" })
+    public int npcs;
+    private SQLiteNPCDataStore store;
+    private BinaryStorage synthetic;
+    private AsyncStorageWriter writer;
+
+    @Benchmark
+    public void load(Blackhole blackhole) throws IOException, SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath());
+                Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery("SELECT id, data FROM npcs ORDER BY id")) {
+            while (result.next()) {
+                blackhole.consume(BinaryStorage.decode(result.getBytes(2)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void save() {
+        store.importFrom(synthetic);
+        store.saveToDiskImmediate();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("citizens-benchmark").toFile();
+        database = new File(folder, "saves.db");
+        synthetic = new BinaryStorage(new File(folder, "synthetic.bin"));
+        SyntheticNPCs.populate(synthetic.getKey(""), npcs);
+        writer = new AsyncStorageWriter();
+        store = SQLiteNPCDataStore.create(database, writer);
+        save();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writer.shutdown();
+        store.close();
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+}
@@ -0,0 +1,121 @@
+package net.citizensnpcs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.MemoryDataKey;
+import net.citizensnpcs.api.util.NBTStorage;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.api.util.YamlStorage;
+import net.citizensnpcs.storage.BinaryStorage;
+
+/**
+ * Measures the three steps of saving and loading NPCs with a tree storage backend, using synthetic NPC data:
+ * <ul>
+ * <li>{@link #store()}: writing every NPC into the storage tree, as SimpleNPCDataStore#storeAll does
+ * <li>{@link #save()}: writing the tree to disk, as SimpleNPCDataStore#saveToDiskImmediate does
+ * <li>{@link #load(Blackhole)}: reading the file and visiting every NPC, as SimpleNPCDataStore#loadInto does before
+ * creating the NPCs
+ * </ul>
+ * Creating NPCs and loading their traits needs a running server, so it isn't measured here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageBenchmark {
+    private File folder;
+    @Param({ "1000", "10000", "100000" })
+    public int npcs;
+    private Storage storage;
+    private Map<String, Object> synthetic;
+    @Param({ "yaml", "nbt", "binary" })
+    public String type;
+
+    private Storage create() {
+        File file = new File(folder, "saves." + (type.equals("yaml") ? "yml" : type));
+        switch (type) {
+            case "binary":
+                return new BinaryStorage(file);
+            case "nbt":
+                return new NBTStorage(file, "Citizens NPC Storage");
+            default:
+                return new YamlStorage(file, "Citizens NPC Storage");
+        }
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) {
+        Storage loaded = create();
+        loaded.load();
+        for (DataKey key : loaded.getKey("npc").getIntegerSubKeys()) {
+            blackhole.consume(key.getString("name"));
+            blackhole.consume(key.getString("traits.type"));
+        }
+    }
+
+    @Benchmark
+    public void save() {
+        storage.save();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("citizens-benchmark").toFile();
+        MemoryDataKey root = new MemoryDataKey();
+        SyntheticNPCs.populate(root, npcs);
+        synthetic = root.getRelative("npc").getValuesDeep();
+        storage = create();
+        store();
+        storage.save();
+    }
+
+    @Benchmark
+    public void store() {
+        DataKey root = storage.getKey("npc");
+        for (Map.Entry<String, Object> npc : synthetic.entrySet()) {
+            root.removeKey(npc.getKey());
+            set(root.getRelative(npc.getKey()), npc.getValue());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : folder.listFiles()) {
+            file.delete();
+        }
+        folder.delete();
+    }
+
+    @SuppressWarnings("unchecked")
+    static void set(DataKey key, Object values) {
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) values).entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                set(key.getRelative(entry.getKey()), entry.getValue());
+            } else {
+                key.setRaw(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
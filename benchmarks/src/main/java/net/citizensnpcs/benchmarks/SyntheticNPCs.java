@@ -0,0 +1,96 @@
+package net.citizensnpcs.benchmarks;
+
+import java.util.Random;
+import java.util.UUID;
+
+import net.citizensnpcs.api.util.DataKey;
+
+/**
+ * Generates stored NPC data shaped like a typical server's saves: every NPC has a location, type and owner, and a
+ * fixed share of them have a skin, hologram, linear waypoints or commands. Uses a fixed seed so that every run stores
+ * the same data.
+ */
+public class SyntheticNPCs {
+    private SyntheticNPCs() {
+    }
+
+    /**
+     * Stores the given number of NPCs under the <code>npc</code> key of the root, in the same layout as
+     * SimpleNPCDataStore.
+     */
+    public static void populate(DataKey root, int count) {
+        Random random = new Random(SEED);
+        DataKey npcs = root.getRelative("npc");
+        for (int id = 0; id < count; id++) {
+            DataKey npc = npcs.getRelative(Integer.toString(id));
+            npc.setString("name", "NPC " + id);
+            npc.setString("uuid", new UUID(random.nextLong(), random.nextLong()).toString());
+            DataKey traits = npc.getRelative("traits");
+            traits.setString("type", random.nextInt(4) == 0 ? "VILLAGER" : "PLAYER");
+            traits.setBoolean("spawned", true);
+            traits.setString("owner.uuid", OWNER.toString());
+            setLocation(traits.getRelative("location"), random);
+            traits.setBoolean("lookclose.enabled", random.nextBoolean());
+            traits.setDouble("lookclose.range", 5);
+            if (random.nextInt(10) < 6) {
+                DataKey skin = traits.getRelative("skintrait");
+                skin.setString("skinName", "skin" + random.nextInt(1000));
+                skin.setString("signature", randomString(random, 684));
+                skin.setString("textureRaw", randomString(random, 412));
+                skin.setBoolean("fetchDefaultSkin", false);
+                skin.setBoolean("updateSkins", false);
+            }
+            if (random.nextInt(10) < 3) {
+                DataKey hologram = traits.getRelative("hologramtrait");
+                hologram.setDouble("lineHeight", -1);
+                int lines = 1 + random.nextInt(4);
+                for (int i = 0; i < lines; i++) {
+                    hologram.setString("lines." + i + ".text", "&eLine " + i + " of " + npc.name());
+                }
+            }
+            if (random.nextInt(10) < 3) {
+                DataKey waypoints = traits.getRelative("waypoints");
+                waypoints.setString("provider", "linear");
+                waypoints.setBoolean("linear.cycle", true);
+                for (int i = 0; i < 8; i++) {
+                    setLocation(waypoints.getRelative("linear.points." + i + ".location"), random);
+                }
+            }
+            if (random.nextInt(10) < 4) {
+                DataKey commands = traits.getRelative("commandtrait.commands");
+                int commandCount = 1 + random.nextInt(3);
+                for (int i = 0; i < commandCount; i++) {
+                    DataKey command = commands.getRelative(Integer.toString(i));
+                    command.setString("command", "warp arena" + random.nextInt(20) + " <p>");
+                    command.setString("hand", "BOTH");
+                    command.setBoolean("player", true);
+                    command.setBoolean("op", false);
+                    command.setInt("cooldown", 0);
+                    command.setInt("delay", 0);
+                    command.setInt("n", -1);
+                }
+            }
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = BASE64.charAt(random.nextInt(BASE64.length()));
+        }
+        return new String(chars);
+    }
+
+    private static void setLocation(DataKey key, Random random) {
+        key.setString("world", "world");
+        key.setDouble("x", random.nextInt(20000) - 10000 + 0.5);
+        key.setDouble("y", 64);
+        key.setDouble("z", random.nextInt(20000) - 10000 + 0.5);
+        key.setDouble("yaw", random.nextInt(360));
+        key.setDouble("pitch", 0);
+    }
+
+    private static final String BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    private static final UUID OWNER = new UUID(0, 1);
+    private static final long SEED = 0xC17;
+}
@@ -0,0 +1,96 @@
+package net.citizensnpcs;
+
+import org.bukkit.Bukkit;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.block.BlockPistonRetractEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.util.BlockRevisions;
+
+/**
+ * Bumps {@link BlockRevisions} when blocks change. Only registered when something relies on the revisions to notice
+ * block changes: at startup if {@link #isNeeded()}, or later through {@link #register()}, for example when an NPC
+ * caches waypoint paths although the default setting doesn't.
+ */
+public class BlockRevisionListener implements Listener {
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        BlockRevisions.changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockExplode(BlockExplodeEvent event) {
+        BlockRevisions.changed(event.getBlock());
+        for (Block block : event.blockList()) {
+            BlockRevisions.changed(block);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPhysics(BlockPhysicsEvent event) {
+        BlockRevisions.changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonExtend(BlockPistonExtendEvent event) {
+        BlockRevisions.changed(event.getBlock().getRelative(event.getDirection()));
+        for (Block block : event.getBlocks()) {
+            BlockRevisions.changed(block);
+            BlockRevisions.changed(block.getRelative(event.getDirection()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonRetract(BlockPistonRetractEvent event) {
+        // the retracting piston head, and pulled blocks on either side since the direction differs between versions
+        BlockRevisions.changed(event.getBlock().getRelative(event.getDirection()));
+        BlockRevisions.changed(event.getBlock().getRelative(event.getDirection().getOppositeFace()));
+        for (Block block : event.getBlocks()) {
+            BlockRevisions.changed(block);
+            BlockRevisions.changed(block.getRelative(event.getDirection()));
+            BlockRevisions.changed(block.getRelative(event.getDirection().getOppositeFace()));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        BlockRevisions.changed(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        for (Block block : event.blockList()) {
+            BlockRevisions.changed(block);
+        }
+    }
+
+    /**
+     * @return whether the shared path cache, waypoint path caching or hierarchical pathfinding is enabled
+     */
+    public static boolean isNeeded() {
+        return Setting.PATH_CACHE_SIZE.asInt() > 0 || Setting.DEFAULT_CACHE_WAYPOINT_PATHS.asBoolean()
+                || Setting.HIERARCHICAL_PATHFINDING_ENABLED.asBoolean();
+    }
+
+    /**
+     * Registers the listener if it hasn't been registered yet.
+     */
+    public static void register() {
+        if (registered)
+            return;
+        registered = true;
+        Bukkit.getPluginManager().registerEvents(new BlockRevisionListener(), CitizensAPI.getPlugin());
+    }
+
+    private static boolean registered;
+}
@@ -1,6 +1,7 @@
 package net.citizensnpcs;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -8,6 +9,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
@@ -27,6 +30,8 @@ import org.bukkit.plugin.java.JavaPlugin;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
 import com.mojang.authlib.GameProfile;
 import com.mojang.authlib.properties.Property;
 
@@ -48,6 +53,7 @@ import net.citizensnpcs.api.event.CitizensPreReloadEvent;
 import net.citizensnpcs.api.event.CitizensReloadEvent;
 import net.citizensnpcs.api.event.DespawnReason;
 import net.citizensnpcs.api.exception.NPCLoadException;
+import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.npc.NPCDataStore;
 import net.citizensnpcs.api.npc.NPCRegistry;
 import net.citizensnpcs.api.npc.SimpleNPCDataStore;
@@ -68,13 +74,25 @@ import net.citizensnpcs.commands.TemplateCommands;
 import net.citizensnpcs.commands.TraitCommands;
 import net.citizensnpcs.commands.WaypointCommands;
 import net.citizensnpcs.editor.Editor;
+import net.citizensnpcs.npc.CitizensNPC;
 import net.citizensnpcs.npc.CitizensNPCRegistry;
 import net.citizensnpcs.npc.CitizensTraitFactory;
+import net.citizensnpcs.npc.LazyNPCLoader;
 import net.citizensnpcs.npc.NPCSelector;
 import net.citizensnpcs.npc.Template;
+import net.citizensnpcs.npc.ai.AsyncPathPlanner;
 import net.citizensnpcs.npc.ai.speech.CitizensSpeechFactory;
 import net.citizensnpcs.npc.profile.ProfileFetcher;
 import net.citizensnpcs.npc.skin.Skin;
+import net.citizensnpcs.storage.AsyncStorageWriter;
+import net.citizensnpcs.storage.AsyncStorageWriter.SaveTarget;
+import net.citizensnpcs.storage.BatchedNPCLoader;
+import net.citizensnpcs.storage.BinaryStorage;
+import net.citizensnpcs.storage.JournalNPCDataStore;
+import net.citizensnpcs.storage.NPCDataLoader.StoredNPC;
+import net.citizensnpcs.storage.RegionNPCDataStore;
+import net.citizensnpcs.storage.SQLiteNPCDataStore;
+import net.citizensnpcs.storage.SaveHistory;
 import net.citizensnpcs.trait.ShopTrait;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
@@ -88,6 +106,7 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
     private final CommandManager commands = new CommandManager();
     private Settings config;
     private boolean enabled;
+    private int incrementalSaves;
     private LocationLookup locationLookup;
     private final NMSHelper nmsHelper = new NMSHelper() {
         private boolean SUPPORT_OWNER_PROFILE = true;
@@ -139,16 +158,30 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
             NMS.updateInventoryTitle(player, view, newTitle);
         }
     };
+    private BatchedNPCLoader npcLoader;
     private CitizensNPCRegistry npcRegistry;
     private ProtocolLibListener protocolListener;
+    private SaveHistory.Record lastSave;
     private boolean saveOnDisable = true;
+    private final SaveHistory saveHistory = new SaveHistory();
     private NPCDataStore saves;
     private NPCSelector selector;
     private StoredShops shops;
     private CitizensSpeechFactory speechFactory;
+    private Storage storage;
+    private SaveTarget storageTarget;
+    private final AsyncStorageWriter storageWriter = new AsyncStorageWriter(saveHistory);
     private final Map<String, NPCRegistry> storedRegistries = Maps.newHashMap();
     private CitizensTraitFactory traitFactory;
 
+    /**
+     * Completes the record once everything queued on the storage writer so far has been written.
+     */
+    private void completeWhenWritten(SaveHistory.Record record) {
+        lastSave = record;
+        storageWriter.execute(record::complete);
+    }
+
     @Override
     public NPCRegistry createAnonymousNPCRegistry(NPCDataStore store) {
         CitizensNPCRegistry anon = new CitizensNPCRegistry(store, "anonymous-" + UUID.randomUUID().toString());
@@ -170,20 +203,113 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return created;
     }
 
+    /**
+     * @return a parser of the stored NPCs which can run off the main thread, or null if the NPCs have to be loaded on
+     *         the main thread in one go
+     */
+    private Supplier<List<StoredNPC>> createNPCParser() {
+        if (Setting.STORAGE_LOAD_BUDGET_MS.asInt() <= 0)
+            return null;
+        if (saves instanceof SQLiteNPCDataStore)
+            return ((SQLiteNPCDataStore) saves)::parseAll;
+        // YAML and NBT keys are backed by configuration sections shared with the main thread, so they are only parsed
+        // off the main thread for binary storage, which decodes NPCs from its own buffer
+        if (storage instanceof BinaryStorage)
+            return ((BinaryStorage) storage).createParser();
+        return null;
+    }
+
     private NPCDataStore createStorage(File folder) {
         Storage saves = null;
         String type = Setting.STORAGE_TYPE.asString();
-        if (type.equalsIgnoreCase("nbt")) {
-            saves = new NBTStorage(new File(folder, Setting.STORAGE_FILE.asString()), "Citizens NPC Storage");
+        File file = new File(folder, Setting.STORAGE_FILE.asString());
+        if (type.equalsIgnoreCase("sqlite")) {
+            File databaseFile = new File(folder, Files.getNameWithoutExtension(file.getName()) + ".db");
+            boolean migrate = !databaseFile.exists() && file.exists();
+            SQLiteNPCDataStore database = SQLiteNPCDataStore.create(databaseFile, storageWriter);
+            if (database != null) {
+                storage = null;
+                storageTarget = null;
+                if (migrate) {
+                    Storage existing = loadExistingStorage(file);
+                    if (existing == null)
+                        return null;
+                    database.importFrom(existing);
+                    database.saveToDiskImmediate();
+                    Messaging.logTr(Messages.STORAGE_MIGRATED, file.getName(), "sqlite");
+                }
+                return database;
+            }
+            Messaging.severeTr(Messages.DATABASE_CONNECTION_FAILED);
+        } else if (Setting.STORAGE_LAZY_LOADING.asBoolean()
+                || RegionNPCDataStore.exists(new File(folder, "npcs"), type)) {
+            // once created, the sharded layout is kept even if lazy loading is turned off again
+            return createRegionStorage(folder, file, type);
+        } else if (type.equalsIgnoreCase("binary")) {
+            File binaryFile = new File(folder, Files.getNameWithoutExtension(file.getName()) + ".bin");
+            saves = new BinaryStorage(binaryFile);
+            if (!binaryFile.exists() && file.exists()) {
+                Storage existing = loadExistingStorage(file);
+                if (existing == null)
+                    return null;
+                ((BinaryStorage) saves).copyFrom(existing);
+                try {
+                    BinaryStorage.write(binaryFile, saves.getKey("").getValuesDeep());
+                } catch (IOException e) {
+                    Messaging.severe("Unable to migrate " + file.getName() + " to binary storage:");
+                    e.printStackTrace();
+                    binaryFile.delete();
+                    return null;
+                }
+                Messaging.logTr(Messages.STORAGE_MIGRATED, file.getName(), "binary");
+            }
+            file = binaryFile;
+        } else if (type.equalsIgnoreCase("nbt")) {
+            saves = new NBTStorage(file, "Citizens NPC Storage");
         }
         if (saves == null) {
-            saves = new YamlStorage(new File(folder, Setting.STORAGE_FILE.asString()), "Citizens NPC Storage");
+            saves = new YamlStorage(file, "Citizens NPC Storage");
         }
         if (!saves.load())
             return null;
+        storage = saves;
+        if (saves instanceof BinaryStorage) {
+            storageTarget = SaveTarget.binary(saves, file);
+        } else if (saves instanceof NBTStorage) {
+            storageTarget = SaveTarget.nbt(saves, file, "Citizens NPC Storage");
+        } else {
+            storageTarget = SaveTarget.yaml(saves, file, "Citizens NPC Storage");
+        }
+        if (Setting.STORAGE_JOURNAL_ENABLED.asBoolean())
+            return JournalNPCDataStore.open(SimpleNPCDataStore.create(saves), saves, storageTarget,
+                    new File(folder, file.getName() + ".journal"), Setting.STORAGE_JOURNAL_COMPACT_SIZE_KB.asInt(),
+                    storageWriter);
         return SimpleNPCDataStore.create(saves);
     }
 
+    private NPCDataStore createRegionStorage(File folder, File file, String type) {
+        File regionFolder = new File(folder, "npcs");
+        boolean migrate = !RegionNPCDataStore.exists(regionFolder, type);
+        if (type.equalsIgnoreCase("binary")) {
+            File binaryFile = new File(folder, Files.getNameWithoutExtension(file.getName()) + ".bin");
+            if (binaryFile.exists()) {
+                file = binaryFile;
+            }
+        }
+        RegionNPCDataStore regions = RegionNPCDataStore.open(regionFolder, type, storageWriter);
+        storage = null;
+        storageTarget = null;
+        if (migrate && file.exists()) {
+            Storage existing = loadExistingStorage(file);
+            if (existing == null)
+                return null;
+            regions.importFrom(existing);
+            regions.saveToDiskImmediate();
+            Messaging.logTr(Messages.STORAGE_MIGRATED, file.getName(), "region");
+        }
+        return regions;
+    }
+
     private void despawnNPCs(boolean save) {
         for (NPCRegistry registry : Iterables.concat(Arrays.asList(npcRegistry), citizensBackedRegistries)) {
             if (registry == null)
@@ -305,6 +431,10 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return new File(getDataFolder(), "scripts");
     }
 
+    public SaveHistory getSaveHistory() {
+        return saveHistory;
+    }
+
     public StoredShops getShops() {
         return shops;
     }
@@ -319,6 +449,24 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         return traitFactory;
     }
 
+    /**
+     * Loads an existing YAML, NBT or binary save file so that it can be migrated to another storage type. The file itself is
+     * left in place.
+     *
+     * @return the loaded storage, or null if it failed to load
+     */
+    private Storage loadExistingStorage(File file) {
+        Storage existing;
+        if (file.getName().endsWith(".bin")) {
+            existing = new BinaryStorage(file);
+        } else if (file.getName().endsWith(".nbt")) {
+            existing = new NBTStorage(file, "Citizens NPC Storage");
+        } else {
+            existing = new YamlStorage(file, "Citizens NPC Storage");
+        }
+        return existing.load() ? existing : null;
+    }
+
     private void loadMavenLibraries() {
         getLogger().info("Loading external libraries");
 
@@ -360,10 +508,39 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
                 .relocate("net{}kyori", "clib{}net{}kyori").build());
     }
 
+    private void loadNPCs() {
+        long start = System.nanoTime();
+        SaveHistory.Record record = saveHistory.begin("load", false);
+        if (saves instanceof RegionNPCDataStore && Setting.STORAGE_LAZY_LOADING.asBoolean()) {
+            LazyNPCLoader loader = new LazyNPCLoader(npcRegistry, (RegionNPCDataStore) saves);
+            npcRegistry.setLazyLoader(loader);
+            loader.index();
+        } else {
+            npcRegistry.setLazyLoader(null);
+            saves.loadInto(npcRegistry);
+        }
+        npcRegistry.clearChanged();
+        record.setNPCCount(Iterables.size(npcRegistry));
+        record.addMainThreadTime(System.nanoTime() - start);
+        record.complete();
+    }
+
     @Override
     public boolean onCommand(CommandSender sender, org.bukkit.command.Command command, String cmdName, String[] args) {
         Object[] methodArgs = { sender, selector == null ? null : selector.getSelected(sender) };
-        return commands.executeSafe(command, args, sender, methodArgs);
+        boolean result = commands.executeSafe(command, args, sender, methodArgs);
+        // commands can modify any part of the NPCs they target, so always store them in the next save
+        if (methodArgs[1] instanceof CitizensNPC) {
+            ((CitizensNPC) methodArgs[1]).markChanged();
+        }
+        for (int i = 0; i < args.length - 1; i++) {
+            Integer id = args[i].equalsIgnoreCase("--id") ? Ints.tryParse(args[i + 1]) : null;
+            NPC target = id == null ? null : npcRegistry.getById(id);
+            if (target instanceof CitizensNPC) {
+                ((CitizensNPC) target).markChanged();
+            }
+        }
+        return result;
     }
 
     public void onDependentPluginDisable() {
@@ -373,18 +550,32 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
 
     @Override
     public void onDisable() {
-        if (!enabled) {
+        if (!enabled && npcLoader == null) {
             return;
         }
+        if (npcLoader != null) {
+            // disabled while NPCs are still being loaded, so despawn those loaded so far without saving over the
+            // stored data of the rest
+            npcLoader.stop();
+            npcLoader = null;
+            saveOnDisable = false;
+        }
         Bukkit.getPluginManager().callEvent(new CitizensDisableEvent());
         Editor.leaveAll();
         despawnNPCs(saveOnDisable);
+        storageWriter.shutdown();
+        if (saves instanceof SQLiteNPCDataStore) {
+            ((SQLiteNPCDataStore) saves).close();
+        } else if (saves instanceof JournalNPCDataStore) {
+            ((JournalNPCDataStore) saves).close();
+        }
         HandlerList.unregisterAll(this);
         npcRegistry = null;
         locationLookup = null;
         enabled = false;
         saveOnDisable = true;
         Template.shutdown();
+        AsyncPathPlanner.shutdown();
         NMS.shutdown();
         CitizensAPI.shutdown();
     }
@@ -413,7 +604,7 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         registerScriptHelpers();
 
         saves = createStorage(getDataFolder());
-        shops = new StoredShops(new YamlStorage(new File(getDataFolder(), "shops.yml")));
+        shops = new StoredShops(new File(getDataFolder(), "shops.yml"), storageWriter);
         if (saves == null || !shops.loadFromDisk()) {
             Messaging.severeTr(Messages.FAILED_LOAD_SAVES);
             Bukkit.getPluginManager().disablePlugin(this);
@@ -432,6 +623,9 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         selector = new NPCSelector(this);
 
         Bukkit.getPluginManager().registerEvents(new EventListen(storedRegistries), this);
+        if (BlockRevisionListener.isNeeded()) {
+            BlockRevisionListener.register();
+        }
         Plugin papi = Bukkit.getPluginManager().getPlugin("PlaceholderAPI");
         if (papi != null && papi.isEnabled()) {
             new CitizensPlaceholders(selector).register();
@@ -498,8 +692,9 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         Skin.clearCache();
         getServer().getPluginManager().callEvent(new CitizensPreReloadEvent());
 
+        storageWriter.awaitCompletion();
         saves.reloadFromSource();
-        saves.loadInto(npcRegistry);
+        loadNPCs();
 
         shops.loadFromDisk();
         shops.load();
@@ -514,7 +709,20 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         storedRegistries.remove(name);
     }
 
+    private void saveNPCsToDisk() {
+        if (saves instanceof JournalNPCDataStore || saves instanceof RegionNPCDataStore
+                || saves instanceof SQLiteNPCDataStore) {
+            saves.saveToDisk();
+        } else if (storageTarget != null) {
+            storageWriter.save(storageTarget);
+        } else {
+            // a custom data store, which can't be snapshotted
+            saves.saveToDiskImmediate();
+        }
+    }
+
     private void scheduleSaveTask(int delay) {
+        saveHistory.setSlowSaveThreshold(delay * 50L, TimeUnit.MILLISECONDS);
         Bukkit.getScheduler().scheduleSyncRepeatingTask(this, new CitizensSaveTask(), delay, delay);
     }
 
@@ -525,8 +733,11 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         }
         despawnNPCs(true);
         this.saves = store;
+        this.storage = null;
+        this.storageTarget = null;
         this.npcRegistry = new CitizensNPCRegistry(saves, "citizens-global-" + UUID.randomUUID().toString());
         saves.loadInto(npcRegistry);
+        npcRegistry.clearChanged();
     }
 
     private void setupEconomy() {
@@ -584,26 +795,62 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
         storeNPCs(false);
     }
 
+    /**
+     * Stores only the NPCs which have changed since the last save, and only saves to disk if anything changed. Every
+     * {@link Setting#SAVE_TASK_FULL_SAVE_INTERVAL} incremental saves a full save is made instead, to pick up changes
+     * to trait fields, which aren't tracked. The interval defaults to 1, so saves are only incremental when configured.
+     */
+    private void storeChangedNPCs() {
+        if (saves == null)
+            return;
+        if (lastSave != null && !lastSave.isComplete()) {
+            // leave the changes marked so that they are picked up by the next save instead of queueing another one
+            Messaging.logTr(Messages.SAVE_STILL_IN_FLIGHT, lastSave.getOperation());
+            return;
+        }
+        int interval = Setting.SAVE_TASK_FULL_SAVE_INTERVAL.asInt();
+        if (interval > 0 && ++incrementalSaves >= interval) {
+            storeNPCs(true);
+            return;
+        }
+        long start = System.nanoTime();
+        SaveHistory.Record record = saveHistory.begin("incremental save", true);
+        record.setNPCCount(npcRegistry.getChangedCount());
+        shops.storeShops();
+        shops.saveToDisk();
+        if (npcRegistry.storeChanged()) {
+            saveNPCsToDisk();
+        }
+        record.addMainThreadTime(System.nanoTime() - start);
+        completeWhenWritten(record);
+    }
+
+    /**
+     * Stores every NPC and queues the NPC and shop storage to be saved to disk.
+     *
+     * @param async
+     *            Whether to return without waiting for the files to be written
+     */
     public void storeNPCs(boolean async) {
         if (saves == null)
             return;
-        saves.storeAll(npcRegistry);
+        long start = System.nanoTime();
+        SaveHistory.Record record = saveHistory.begin("full save", true);
+        record.setNPCCount(Iterables.size(npcRegistry));
+        npcRegistry.storeAll();
+        incrementalSaves = 0;
         shops.storeShops();
-        if (async) {
-            new Thread(() -> {
-                shops.saveToDisk();
-                saves.saveToDiskImmediate();
-            }).start();
-        } else {
-            shops.saveToDisk();
-            saves.saveToDiskImmediate();
+        shops.saveToDisk();
+        saveNPCsToDisk();
+        completeWhenWritten(record);
+        if (!async) {
+            storageWriter.awaitCompletion();
         }
+        record.addMainThreadTime(System.nanoTime() - start);
     }
 
     private class CitizensLoadTask implements Runnable {
-        @Override
-        public void run() {
-            saves.loadInto(npcRegistry);
+        private void onNPCsLoaded() {
             shops.load();
 
             Messaging.logTr(Messages.NUM_LOADED_NOTIFICATION, Iterables.size(npcRegistry), "?");
@@ -613,12 +860,31 @@ public class Citizens extends JavaPlugin implements CitizensPlugin {
             new PlayerUpdateTask().runTaskTimer(Citizens.this, 0, 1);
             enabled = true;
         }
+
+        @Override
+        public void run() {
+            Supplier<List<StoredNPC>> parser = createNPCParser();
+            if (parser == null) {
+                loadNPCs();
+                onNPCsLoaded();
+                return;
+            }
+            SaveHistory.Record record = saveHistory.begin("load", false);
+            npcLoader = BatchedNPCLoader.load(Citizens.this, npcRegistry, parser,
+                    Setting.STORAGE_LOAD_BUDGET_MS.asInt(), record, () -> {
+                        npcLoader = null;
+                        npcRegistry.clearChanged();
+                        record.setNPCCount(Iterables.size(npcRegistry));
+                        record.complete();
+                        onNPCsLoaded();
+                    });
+        }
     }
 
     private class CitizensSaveTask implements Runnable {
         @Override
         public void run() {
-            storeNPCs(false);
+            storeChangedNPCs();
         }
     }
 }
@@ -1,13 +1,12 @@
 package net.citizensnpcs;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.Material;
-import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.FishHook;
 import org.bukkit.entity.LivingEntity;
@@ -59,11 +58,11 @@ import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.scheduler.BukkitRunnable;
 
 import com.google.common.base.Joiner;
-import com.google.common.base.Predicates;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
@@ -94,15 +93,20 @@ import net.citizensnpcs.api.npc.NPCRegistry;
 import net.citizensnpcs.api.trait.trait.Owner;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.editor.Editor;
+import net.citizensnpcs.npc.CitizensNPCRegistry;
+import net.citizensnpcs.npc.LazyNPCLoader;
+import net.citizensnpcs.npc.ai.SectionGraph;
 import net.citizensnpcs.npc.skin.SkinUpdateTracker;
 import net.citizensnpcs.trait.ClickRedirectTrait;
 import net.citizensnpcs.trait.CommandTrait;
 import net.citizensnpcs.trait.Controllable;
 import net.citizensnpcs.trait.CurrentLocation;
 import net.citizensnpcs.trait.ShopTrait;
+import net.citizensnpcs.util.BlockRevisions;
 import net.citizensnpcs.util.ChunkCoord;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.NPCChunkIndex;
 import net.citizensnpcs.util.PlayerAnimation;
 import net.citizensnpcs.util.Util;
 
@@ -110,7 +114,8 @@ public class EventListen implements Listener {
     private EventListenChunk chunkEventListener;
     private final Map<String, NPCRegistry> registries;
     private final SkinUpdateTracker skinUpdateTracker;
-    private final ListMultimap<ChunkCoord, NPC> toRespawn = ArrayListMultimap.create(64, 4);
+    // keyed by world so that loading a world only looks at its own chunks
+    private final Map<UUID, ListMultimap<ChunkCoord, NPC>> toRespawn = Maps.newHashMap();
 
     EventListen(Map<String, NPCRegistry> registries) {
         this.registries = registries;
@@ -149,14 +154,17 @@ public class EventListen implements Listener {
             limit = i;
             break;
         }
-        if (limit < 0)
+        if (limit < 0 || !(CitizensAPI.getNPCRegistry() instanceof CitizensNPCRegistry))
             return;
-        int owned = 0;
-        for (NPC npc : CitizensAPI.getNPCRegistry()) {
-            if (!event.getNPC().equals(npc) && npc.hasTrait(Owner.class)
-                    && npc.getTraitNullable(Owner.class).isOwnedBy(event.getCreator())) {
-                owned++;
-            }
+        CitizensNPCRegistry registry = (CitizensNPCRegistry) CitizensAPI.getNPCRegistry();
+        // NPCs created by anything other than a player are owned by the server
+        UUID creator = event.getCreator() instanceof Player ? ((Player) event.getCreator()).getUniqueId() : null;
+        int owned = registry.getOwnedNPCCount(creator);
+        Owner trait = event.getNPC().getTraitNullable(Owner.class);
+        if (trait != null && trait.isOwnedBy(event.getCreator())
+                && registry.getById(event.getNPC().getId()) == event.getNPC()) {
+            // the new NPC is already counted
+            owned = Math.max(0, owned - 1);
         }
         int wouldOwn = owned + 1;
         if (wouldOwn > limit) {
@@ -165,21 +173,21 @@ public class EventListen implements Listener {
         }
     }
 
-    private Iterable<NPC> getAllNPCs() {
-        return Iterables.filter(
-                Iterables.<NPC> concat(CitizensAPI.getNPCRegistry(), Iterables.concat(registries.values())),
-                Predicates.notNull());
-    }
-
     void loadNPCs(ChunkEvent event) {
         ChunkCoord coord = new ChunkCoord(event.getChunk());
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
+                if (CitizensAPI.getNPCRegistry() instanceof CitizensNPCRegistry) {
+                    LazyNPCLoader loader = ((CitizensNPCRegistry) CitizensAPI.getNPCRegistry()).getLazyLoader();
+                    if (loader != null) {
+                        loader.loadChunk(event.getChunk());
+                    }
+                }
                 respawnAllFromCoord(coord, event);
             }
         };
-        if (Messaging.isDebugging() && Setting.DEBUG_CHUNK_LOADS.asBoolean() && toRespawn.containsKey(coord)) {
+        if (Messaging.isDebugging() && Setting.DEBUG_CHUNK_LOADS.asBoolean() && getRespawns(coord).containsKey(coord)) {
             new Exception("CITIZENS CHUNK LOAD DEBUG " + coord).printStackTrace();
         }
         if (event instanceof Cancellable) {
@@ -200,7 +208,7 @@ public class EventListen implements Listener {
     public void onChunkUnload(final ChunkUnloadEvent event) {
         if (chunkEventListener != null)
             return;
-        unloadNPCs(event, Arrays.asList(event.getChunk().getEntities()));
+        unloadNPCs(event);
     }
 
     @EventHandler(priority = EventPriority.MONITOR)
@@ -361,10 +369,10 @@ public class EventListen implements Listener {
     @EventHandler
     public void onNeedsRespawn(NPCNeedsRespawnEvent event) {
         ChunkCoord coord = new ChunkCoord(event.getSpawnLocation());
-        if (toRespawn.containsEntry(coord, event.getNPC()))
+        if (getRespawns(coord).containsEntry(coord, event.getNPC()))
             return;
         Messaging.debug("Stored", event.getNPC(), "for respawn from NPCNeedsRespawnEvent");
-        toRespawn.put(coord, event.getNPC());
+        getRespawns(coord).put(coord, event.getNPC());
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
@@ -373,7 +381,7 @@ public class EventListen implements Listener {
                 || event.getReason() == DespawnReason.RELOAD) {
             Messaging.idebug(() -> Joiner.on(' ').join("Preventing further respawns of", event.getNPC(),
                     "due to DespawnReason." + event.getReason()));
-            toRespawn.values().remove(event.getNPC());
+            removeRespawns(event.getNPC());
         } else {
             Messaging.idebug(() -> Joiner.on(' ').join("Removing", event.getNPC(),
                     "from skin tracker due to DespawnReason." + event.getReason().name()));
@@ -383,7 +391,7 @@ public class EventListen implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onNPCRemove(NPCRemoveEvent event) {
-        toRespawn.values().remove(event.getNPC());
+        removeRespawns(event.getNPC());
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
@@ -391,7 +399,7 @@ public class EventListen implements Listener {
         skinUpdateTracker.onNPCSpawn(event.getNPC());
         Messaging.idebug(() -> Joiner.on(' ').join("Removing respawns of", event.getNPC(),
                 "due to SpawnReason." + event.getReason()));
-        toRespawn.values().remove(event.getNPC());
+        removeRespawns(event.getNPC());
     }
 
     @EventHandler(ignoreCancelled = true)
@@ -614,8 +622,11 @@ public class EventListen implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     public void onWorldLoad(WorldLoadEvent event) {
-        for (ChunkCoord chunk : toRespawn.keySet()) {
-            if (!chunk.worldUUID.equals(event.getWorld().getUID()) || !event.getWorld().isChunkLoaded(chunk.x, chunk.z))
+        ListMultimap<ChunkCoord, NPC> respawns = toRespawn.get(event.getWorld().getUID());
+        if (respawns == null)
+            return;
+        for (ChunkCoord chunk : Lists.newArrayList(respawns.keySet())) {
+            if (!event.getWorld().isChunkLoaded(chunk.x, chunk.z))
                 continue;
             respawnAllFromCoord(chunk, event);
         }
@@ -623,13 +634,14 @@ public class EventListen implements Listener {
 
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onWorldUnload(WorldUnloadEvent event) {
-        for (NPC npc : getAllNPCs()) {
-            if (npc == null || !npc.isSpawned() || !npc.getEntity().getWorld().equals(event.getWorld()))
+        for (NPC npc : NPCChunkIndex.getNPCs(event.getWorld())) {
+            if (!npc.isSpawned() || !npc.getEntity().getWorld().equals(event.getWorld()))
                 continue;
             boolean despawned = npc.despawn(DespawnReason.WORLD_UNLOAD);
             if (event.isCancelled() || !despawned) {
-                for (ChunkCoord coord : toRespawn.keySet()) {
-                    if (event.getWorld().getUID().equals(coord.worldUUID)) {
+                ListMultimap<ChunkCoord, NPC> respawns = toRespawn.get(event.getWorld().getUID());
+                if (respawns != null) {
+                    for (ChunkCoord coord : Lists.newArrayList(respawns.keySet())) {
                         respawnAllFromCoord(coord, event);
                     }
                 }
@@ -637,15 +649,28 @@ public class EventListen implements Listener {
                 return;
             }
             if (npc.isSpawned()) {
-                toRespawn.put(new ChunkCoord(npc.getEntity().getLocation()), npc);
+                ChunkCoord coord = new ChunkCoord(npc.getEntity().getLocation());
+                getRespawns(coord).put(coord, npc);
                 Messaging.debug("Despawned", npc, "due to world unload at", event.getWorld().getName());
             }
         }
         CitizensAPI.getLocationLookup().onWorldUnload(event);
+        BlockRevisions.unload(event.getWorld());
+        SectionGraph.unload(event.getWorld());
+    }
+
+    private ListMultimap<ChunkCoord, NPC> getRespawns(ChunkCoord coord) {
+        return toRespawn.computeIfAbsent(coord.worldUUID, world -> ArrayListMultimap.create(64, 4));
+    }
+
+    private void removeRespawns(NPC npc) {
+        for (ListMultimap<ChunkCoord, NPC> respawns : toRespawn.values()) {
+            respawns.values().remove(npc);
+        }
     }
 
     private void respawnAllFromCoord(ChunkCoord coord, Event event) {
-        List<NPC> ids = Lists.newArrayList(toRespawn.get(coord));
+        List<NPC> ids = Lists.newArrayList(getRespawns(coord).get(coord));
         if (ids.size() > 0) {
             Messaging.debug("Respawning all NPCs at", coord, "due to", event);
         }
@@ -668,7 +693,7 @@ public class EventListen implements Listener {
             Messaging.idebug(() -> Joiner.on(' ').join("Spawned", npc, "during", event, "at", coord));
         }
         for (NPC npc : ids) {
-            toRespawn.remove(coord, npc);
+            getRespawns(coord).remove(coord, npc);
         }
     }
 
@@ -681,26 +706,25 @@ public class EventListen implements Listener {
         return npc.spawn(spawn, SpawnReason.CHUNK_LOAD);
     }
 
-    void unloadNPCs(ChunkEvent event, List<Entity> entities) {
+    void unloadNPCs(ChunkEvent event) {
+        ChunkCoord coord = new ChunkCoord(event.getChunk());
         final List<NPC> toDespawn = Lists.newArrayList();
-        for (Entity entity : entities) {
-            NPC npc = CitizensAPI.getNPCRegistry().getNPC(entity);
+        for (NPC npc : NPCChunkIndex.getNPCs(coord)) {
             // XXX : npc#isSpawned() checks entity valid status which is now inconsistent on chunk unload between
             // different server software (e.g. Paper and Spigot), so check for npc.getEntity() == null instead.
-            if (npc == null || npc.getEntity() == null)
+            if (npc.getEntity() == null)
                 continue;
             toDespawn.add(npc);
         }
         if (toDespawn.isEmpty())
             return;
-        ChunkCoord coord = new ChunkCoord(event.getChunk());
         boolean loadChunk = false;
         for (NPC npc : toDespawn) {
             if (!npc.despawn(DespawnReason.CHUNK_UNLOAD)) {
                 if (!(event instanceof Cancellable)) {
                     Messaging.idebug(() -> Joiner.on(' ').join("Reloading chunk because", npc, "couldn't despawn"));
                     loadChunk = true;
-                    toRespawn.put(coord, npc);
+                    getRespawns(coord).put(coord, npc);
                     continue;
                 }
                 ((Cancellable) event).setCancelled(true);
@@ -708,7 +732,7 @@ public class EventListen implements Listener {
                 respawnAllFromCoord(coord, event);
                 return;
             }
-            toRespawn.put(coord, npc);
+            getRespawns(coord).put(coord, npc);
             Messaging.idebug(() -> Joiner.on(' ').join("Despawned", npc, "due to chunk unload at", coord));
         }
         if (Messaging.isDebugging() && Setting.DEBUG_CHUNK_LOADS.asBoolean()) {
@@ -20,6 +20,6 @@ public class EventListenChunk implements Listener {
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onEntitiesUnload(EntitiesUnloadEvent event) {
-        listen.unloadNPCs(event, event.getEntities());
+        listen.unloadNPCs(event);
     }
 }
@@ -58,8 +58,12 @@ public class Settings {
 
     public enum Setting {
         ALWAYS_USE_NAME_HOLOGRAM("npc.always-use-name-holograms", false),
+        ASTAR_ASYNC("npc.pathfinding.new-finder.async", false),
+        ASTAR_ASYNC_THREADS("npc.pathfinding.new-finder.async-threads", 2),
+        ASTAR_GLOBAL_ITERATIONS_PER_TICK("npc.pathfinding.new-finder.global-iterations-per-tick", -1),
         ASTAR_ITERATIONS_PER_TICK("npc.pathfinding.new-finder.iterations-per-tick",
                 "npc.pathfinding.new-finder.iterations-per-tick", 2500),
+        ASTAR_MAX_WAIT_TICKS("npc.pathfinding.new-finder.max-wait-ticks", 10),
         AUTH_SERVER_URL("general.authlib.profile-url", "https://sessionserver.mojang.com/session/minecraft/profile/"),
         BOSSBAR_RANGE("npc.default.bossbar-view-range", 64),
         CHAT_BYSTANDERS_HEAR_TARGETED_CHAT("npc.chat.options.bystanders-hear-targeted-chat", false),
@@ -79,7 +83,7 @@ public class Settings {
         DEBUG_MODE("general.debug-mode", false),
         DEBUG_PATHFINDING("general.debug-pathfinding", false),
         DEFAULT_BLOCK_BREAKER_RADIUS("npc.defaults.block-breaker-radius", "npc.default.block-breaker-radius", -1),
-        DEFAULT_CACHE_WAYPOINT_PATHS("npc.default.waypoints.cache-paths", false),
+        DEFAULT_CACHE_WAYPOINT_PATHS("npc.default.waypoints.cache-paths", true),
         DEFAULT_DESTINATION_TELEPORT_MARGIN("npc.pathfinding.defaults.destination-teleport-margin",
                 "npc.pathfinding.default-destination-teleport-margin", -1),
         DEFAULT_DISTANCE_MARGIN("npc.pathfinding.default-distance-margin", 2),
@@ -118,6 +122,12 @@ public class Settings {
         ENTITY_SPAWN_WAIT_TICKS("general.entity-spawn-wait-ticks", 20),
         ERROR_COLOUR("general.color-scheme.message-error", "<red>"),
         FOLLOW_ACROSS_WORLDS("npc.follow.teleport-across-worlds", true),
+        HIBERNATION_CHECK_TICKS("npc.hibernation.check-interval-ticks", 20),
+        HIBERNATION_ENABLED("npc.hibernation.enabled", false),
+        HIBERNATION_RANGE("npc.hibernation.player-range", 48),
+        HIERARCHICAL_PATHFINDING_ENABLED("npc.pathfinding.hierarchical.enabled", false),
+        HIERARCHICAL_PATHFINDING_MAX_SECTIONS("npc.pathfinding.hierarchical.max-cached-sections", 16384),
+        HIERARCHICAL_PATHFINDING_SECTIONS_PER_TICK("npc.pathfinding.hierarchical.sections-per-tick", 4),
         HIGHLIGHT_COLOUR("general.color-scheme.message-highlight", "yellow"),
         HOLOGRAM_UPDATE_RATE_TICKS("npc.hologram.update-rate-ticks", 20),
         INITIAL_PLAYER_JOIN_SKIN_PACKET_DELAY_TICKS("npc.skins.player-join-update-delay-ticks", 3 * 20),
@@ -155,22 +165,39 @@ public class Settings {
         NPC_SKIN_ROTATION_UPDATE_DEGREES("npc.skins.rotation-update-degrees", 90f),
         NPC_SKIN_USE_LATEST("npc.skins.use-latest-by-default", false),
         NPC_SKIN_VIEW_DISTANCE("npc.skins.view-distance", 100D),
+        NPC_TICK_BUDGET_MAX_DEFERRED_TICKS("npc.tick-budget.max-deferred-ticks", 3),
+        NPC_TICK_BUDGET_MS("npc.tick-budget.milliseconds-per-tick", -1),
         NPC_WATER_SPEED_MODIFIER("npc.movement.water-speed-modifier", 1.25F),
         PACKET_UPDATE_DELAY("npc.packets.update-delay", 30),
+        PATH_CACHE_EXPIRY_SECONDS("npc.pathfinding.path-cache.expiry-seconds", 60),
+        PATH_CACHE_SIZE("npc.pathfinding.path-cache.size", 1000),
         PLACEHOLDER_SKIN_UPDATE_FREQUENCY("npc.skins.placeholder-update-frequency-ticks", 5 * 60 * 20),
         PLAYER_TELEPORT_DELAY("npc.teleport-delay", "npc.delay-player-teleport-ticks", -1),
         REMOVE_PLAYERS_FROM_PLAYER_LIST("npc.player.remove-from-list", true),
         SAVE_TASK_DELAY("storage.save-task.delay", 20 * 60 * 60),
+        SAVE_TASK_FULL_SAVE_INTERVAL("storage.save-task.full-save-interval", 1),
         SCOREBOARD_SEND_TICKS("npc.scoreboard-teams.packet-send-ticks", 1),
         SELECTION_ITEM("npc.selection.item", "stick"),
         SELECTION_MESSAGE("npc.selection.message", "Selected [[<npc>]] (ID <id>)."),
         SERVER_OWNS_NPCS("npc.server-ownership", false),
         STORAGE_FILE("storage.file", "saves.yml"),
+        STORAGE_JOURNAL_COMPACT_SIZE_KB("storage.journal.compact-size-kb", 8192),
+        STORAGE_JOURNAL_ENABLED("storage.journal.enabled", false),
+        STORAGE_LAZY_LOADING("storage.lazy-loading", false),
+        STORAGE_LOAD_BUDGET_MS("storage.load.milliseconds-per-tick", -1),
         STORAGE_TYPE("storage.type", "yaml"),
         SUBPLUGIN_FOLDER("subplugins.folder", "plugins"),
         TABLIST_REMOVE_PACKET_DELAY("npc.tablist.remove-packet-delay", 1),
         TALK_CLOSE_TO_NPCS("npc.chat.options.talk-to-npcs", true),
         TALK_ITEM("npc.text.talk-item", "*"),
+        TICK_LOD_ENABLED("npc.tick-lod.enabled", false),
+        TICK_LOD_HYSTERESIS("npc.tick-lod.hysteresis-blocks", 8),
+        TICK_LOD_LOW_INTERVAL("npc.tick-lod.low.interval-ticks", 20),
+        TICK_LOD_LOW_RANGE("npc.tick-lod.low.range", 64),
+        TICK_LOD_RECHECK_TICKS("npc.tick-lod.recheck-ticks", 10),
+        TICK_LOD_REDUCED_INTERVAL("npc.tick-lod.reduced.interval-ticks", 4),
+        TICK_LOD_REDUCED_RANGE("npc.tick-lod.reduced.range", 32),
+        TICK_LOD_SUSPEND_RANGE("npc.tick-lod.suspend-range", 128),
         USE_BOAT_CONTROLS("npc.controllable.use-boat-controls", true),
         USE_NEW_PATHFINDER("npc.pathfinding.use-new-finder", false),
         USE_SCOREBOARD_TEAMS("npc.scoreboard-teams.enable", true),
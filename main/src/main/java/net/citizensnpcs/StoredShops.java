@@ -1,7 +1,12 @@
 package net.citizensnpcs;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.Map;
 
+import org.bukkit.configuration.ConfigurationSection;
+
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import net.citizensnpcs.api.persistence.Persist;
@@ -9,17 +14,25 @@ import net.citizensnpcs.api.persistence.PersistenceLoader;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.api.util.Storage;
 import net.citizensnpcs.api.util.YamlStorage;
+import net.citizensnpcs.storage.AsyncStorageWriter;
+import net.citizensnpcs.storage.AsyncStorageWriter.SaveTarget;
 import net.citizensnpcs.trait.ShopTrait.NPCShop;
 
 public class StoredShops {
     @Persist(value = "global", reify = true)
     public Map<String, NPCShop> globalShops = Maps.newHashMap();
+    // the stored values when the shops were last loaded or saved to disk
+    private Map<String, Object> lastSaved;
     @Persist(value = "npc", reify = true)
     public Map<String, NPCShop> npcShops = Maps.newHashMap();
     private final Storage storage;
+    private final SaveTarget target;
+    private final AsyncStorageWriter writer;
 
-    public StoredShops(YamlStorage storage) {
-        this.storage = storage;
+    public StoredShops(File file, AsyncStorageWriter writer) {
+        this.storage = new YamlStorage(file);
+        this.target = SaveTarget.yaml(storage, file, null);
+        this.writer = writer;
     }
 
     public void deleteShop(NPCShop shop) {
@@ -52,16 +65,48 @@ public class StoredShops {
 
     public boolean loadFromDisk() {
         Messaging.debug("Loading shops from disk...");
-        return storage.load();
+        boolean loaded = storage.load();
+        lastSaved = getStoredValues();
+        return loaded;
+    }
+
+    /**
+     * @return every stored value by its full path, which unlike configuration sections can be compared
+     */
+    private Map<String, Object> getStoredValues() {
+        Map<String, Object> values = Maps.newHashMap();
+        flatten("", storage.getKey("").getValuesDeep(), values);
+        return values;
     }
 
+    /**
+     * Queues the shops to be saved to disk, unless they haven't changed since they were last loaded or saved.
+     */
     public void saveToDisk() {
+        Map<String, Object> values = getStoredValues();
+        if (values.equals(lastSaved))
+            return;
         Messaging.debug("Saving shops to disk...");
-        storage.save();
+        lastSaved = values;
+        writer.save(target);
     }
 
     public void storeShops() {
         Messaging.debug("Saving shops...", globalShops.size(), npcShops.size());
         PersistenceLoader.save(this, storage.getKey(""));
     }
+
+    private static void flatten(String prefix, Map<String, Object> values, Map<String, Object> into) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (entry.getValue() instanceof ConfigurationSection) {
+                flatten(prefix + entry.getKey() + ".", ((ConfigurationSection) entry.getValue()).getValues(false),
+                        into);
+            } else if (entry.getValue() instanceof Collection) {
+                // copied, as lists can be modified in place
+                into.put(prefix + entry.getKey(), Lists.newArrayList((Collection<?>) entry.getValue()));
+            } else {
+                into.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package net.citizensnpcs.commands;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 
@@ -11,10 +14,14 @@ import net.citizensnpcs.api.command.Command;
 import net.citizensnpcs.api.command.CommandContext;
 import net.citizensnpcs.api.command.Requirements;
 import net.citizensnpcs.api.command.exception.CommandException;
+import net.citizensnpcs.api.command.exception.CommandUsageException;
 import net.citizensnpcs.api.exception.NPCLoadException;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.npc.ai.PathCache;
+import net.citizensnpcs.storage.SaveHistory;
 import net.citizensnpcs.util.Messages;
+import net.citizensnpcs.util.NPCProfiler;
 import net.citizensnpcs.util.StringHelper;
 
 @Requirements
@@ -34,6 +41,46 @@ public class AdminCommands {
                 + "><hover:show_text:Citizens website including wiki><u>Website</hover></click> <click:open_url:https://discord.gg/Q6pZGSR><hover:show_text:Citizens Support Discord><u>Support</hover></click>");
     }
 
+    @Command(
+            aliases = { "citizens" },
+            usage = "pathcache (clear)",
+            desc = "Show path cache statistics",
+            modifiers = { "pathcache" },
+            min = 1,
+            max = 2,
+            permission = "citizens.admin")
+    public void pathcache(CommandContext args, CommandSender sender, NPC npc) throws CommandException {
+        if (args.argsLength() == 2) {
+            if (!args.getString(1).equalsIgnoreCase("clear"))
+                throw new CommandUsageException();
+            PathCache.clear();
+            Messaging.sendTr(sender, Messages.PATH_CACHE_CLEARED);
+            return;
+        }
+        if (Setting.PATH_CACHE_SIZE.asInt() <= 0) {
+            Messaging.sendTr(sender, Messages.PATH_CACHE_DISABLED);
+            return;
+        }
+        Messaging.sendTr(sender, Messages.PATH_CACHE_STATS, PathCache.size(),
+                String.format("%.1f", PathCache.getHitRate() * 100), PathCache.getHits(), PathCache.getMisses(),
+                PathCache.getEvictions());
+    }
+
+    @Command(
+            aliases = { "citizens" },
+            usage = "profile (seconds)",
+            desc = "Profile NPC and trait tick times",
+            modifiers = { "profile" },
+            min = 1,
+            max = 2,
+            permission = "citizens.admin")
+    public void profile(CommandContext args, CommandSender sender, NPC npc) throws CommandException {
+        int seconds = args.argsLength() > 1 ? Math.max(1, args.getInteger(1)) : 30;
+        if (!NPCProfiler.start(sender, seconds))
+            throw new CommandException(Messages.PROFILE_ALREADY_RUNNING);
+        Messaging.sendTr(sender, Messages.PROFILE_STARTED, seconds);
+    }
+
     @Command(
             aliases = { "citizens" },
             usage = "reload",
@@ -63,17 +110,44 @@ public class AdminCommands {
 
     @Command(
             aliases = { "citizens" },
-            usage = "save (-a)",
+            usage = "save (status) (-a)",
             desc = "Save NPCs",
             help = Messages.COMMAND_SAVE_HELP,
             modifiers = { "save" },
             min = 1,
-            max = 1,
+            max = 2,
             flags = "a",
             permission = "citizens.admin")
-    public void save(CommandContext args, CommandSender sender, NPC npc) {
+    public void save(CommandContext args, CommandSender sender, NPC npc) throws CommandException {
+        if (args.argsLength() == 2) {
+            if (!args.getString(1).equalsIgnoreCase("status"))
+                throw new CommandUsageException();
+            saveStatus(sender);
+            return;
+        }
         Messaging.sendTr(sender, Messages.CITIZENS_SAVING);
         plugin.storeNPCs(args.hasFlag('a'));
         Messaging.sendTr(sender, Messages.CITIZENS_SAVED);
     }
+
+    private void saveStatus(CommandSender sender) {
+        List<SaveHistory.Record> records = plugin.getSaveHistory().getRecords();
+        Messaging.send(sender, StringHelper.wrapHeader("<green>Saves"));
+        if (records.isEmpty()) {
+            Messaging.sendTr(sender, Messages.SAVE_STATUS_EMPTY);
+            return;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+        for (SaveHistory.Record record : records) {
+            String npcs = record.getNPCCount() == -1 ? "" : record.getNPCCount() + " NPCs, ";
+            String bytes = record.getBytes() == -1 ? "" : String.format(", %.1f KB", record.getBytes() / 1024D);
+            String state = record.isCoalesced() ? " <red>(coalesced)"
+                    : record.isComplete() ? "" : " <yellow>(in flight)";
+            Messaging.send(sender,
+                    String.format("<yellow>%s %s<green>: %smain thread %.1fms, total %.1fms%s%s",
+                            format.format(new Date(record.getStartedAt())), record.getOperation(), npcs,
+                            record.getMainThreadNanos() / 1000000D, record.getTotalNanos() / 1000000D, bytes,
+                            state));
+        }
+    }
 }
\ No newline at end of file
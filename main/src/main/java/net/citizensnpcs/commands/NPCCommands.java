@@ -95,6 +95,7 @@ import net.citizensnpcs.commands.gui.NPCConfigurator;
 import net.citizensnpcs.commands.history.CommandHistory;
 import net.citizensnpcs.commands.history.CreateNPCHistoryItem;
 import net.citizensnpcs.commands.history.RemoveNPCHistoryItem;
+import net.citizensnpcs.npc.CitizensNPCRegistry;
 import net.citizensnpcs.npc.EntityControllers;
 import net.citizensnpcs.npc.NPCSelector;
 import net.citizensnpcs.npc.Template;
@@ -719,6 +720,9 @@ public class NPCCommands {
 
         if (!Setting.SERVER_OWNS_NPCS.asBoolean()) {
             npc.getOrAddTrait(Owner.class).setOwner(sender);
+            if (registry instanceof CitizensNPCRegistry) {
+                ((CitizensNPCRegistry) registry).updateOwner(npc);
+            }
         }
 
         if (temporaryTicks != null) {
@@ -1857,6 +1861,9 @@ public class NPCCommands {
         if (ownerTrait.isOwnedBy(uuid))
             throw new CommandException(Messages.ALREADY_OWNER, uuid, npc.getName());
         ownerTrait.setOwner(uuid);
+        if (npc.getOwningRegistry() instanceof CitizensNPCRegistry) {
+            ((CitizensNPCRegistry) npc.getOwningRegistry()).updateOwner(npc);
+        }
         boolean serverOwner = uuid == null;
         Messaging.sendTr(sender, serverOwner ? Messages.OWNER_SET_SERVER : Messages.OWNER_SET, npc.getName(), uuid);
     }
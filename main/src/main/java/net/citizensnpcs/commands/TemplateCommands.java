@@ -8,6 +8,7 @@ import javax.annotation.Nullable;
 import org.bukkit.command.CommandSender;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicates;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -54,18 +55,16 @@ public class TemplateCommands {
                 int parsed = Integer.parseInt(id);
                 ids.add(parsed);
             }
-            Iterable<NPC> transformed = Iterables.transform(ids, new Function<Integer, NPC>() {
+            List<NPC> toApply = Lists.newArrayList(Iterables.filter(Iterables.transform(ids, new Function<Integer, NPC>() {
                 @Override
                 public NPC apply(@Nullable Integer arg0) {
                     if (arg0 == null)
                         return null;
                     return CitizensAPI.getNPCRegistry().getById(arg0);
                 }
-            });
-            for (NPC toApply : transformed) {
-                template.apply(toApply);
-                appliedCount++;
-            }
+            }), Predicates.notNull()));
+            template.applyAll(toApply);
+            appliedCount += toApply.size();
         }
         Messaging.sendTr(sender, Messages.TEMPLATE_APPLIED, appliedCount);
     }
@@ -9,8 +9,11 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
 
+import net.citizensnpcs.Citizens;
 import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.npc.CitizensNPC;
 import net.citizensnpcs.util.Messages;
 
 // TODO: convert to non-static?
@@ -48,6 +51,11 @@ public abstract class Editor implements Listener {
         Editor editor = EDITING.remove(player.getUniqueId());
         HandlerList.unregisterAll(editor);
         editor.end();
+        // editors modify the selected NPC directly, so make sure it is included in the next save
+        NPC selected = ((Citizens) CitizensAPI.getPlugin()).getNPCSelector().getSelected(player);
+        if (selected instanceof CitizensNPC) {
+            ((CitizensNPC) selected).markChanged();
+        }
     }
 
     public static void leaveAll() {
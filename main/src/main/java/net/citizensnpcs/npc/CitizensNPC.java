@@ -43,6 +43,7 @@ import net.citizensnpcs.api.trait.trait.MobType;
 import net.citizensnpcs.api.trait.trait.Spawned;
 import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.npc.EntityStateReconciler.Property;
 import net.citizensnpcs.npc.ai.CitizensNavigator;
 import net.citizensnpcs.npc.skin.SkinnableEntity;
 import net.citizensnpcs.trait.CurrentLocation;
@@ -55,6 +56,10 @@ import net.citizensnpcs.trait.SneakTrait;
 import net.citizensnpcs.util.ChunkCoord;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.NPCChunkIndex;
+import net.citizensnpcs.util.NPCProfiler;
+import net.citizensnpcs.util.NPCSpatialIndex;
+import net.citizensnpcs.util.NPCTickBudget;
 import net.citizensnpcs.util.PlayerAnimation;
 import net.citizensnpcs.util.PlayerUpdateTask;
 import net.citizensnpcs.util.Util;
@@ -62,14 +67,48 @@ import net.citizensnpcs.util.Util;
 public class CitizensNPC extends AbstractNPC {
     private ChunkCoord cachedCoord;
     private EntityController entityController;
+    private final Hibernation hibernation;
+    private TypedMetadataStore typedMetadata;
     private final CitizensNavigator navigator = new CitizensNavigator(this);
+    private final EntityStateReconciler stateReconciler = new EntityStateReconciler();
+    private final TickLevelOfDetail tickLevelOfDetail;
+    private final TraitTickScheduler traitScheduler;
     private int updateCounter = 0;
 
     public CitizensNPC(UUID uuid, int id, String name, EntityController controller, NPCRegistry registry) {
         super(uuid, id, name, registry);
+        hibernation = new Hibernation(id);
+        tickLevelOfDetail = new TickLevelOfDetail(id);
+        traitScheduler = new TraitTickScheduler(id);
+        data().addListener((key, value) -> stateReconciler.markDirty());
         setEntityController(controller);
     }
 
+    @Override
+    public void addTrait(Trait trait) {
+        super.addTrait(trait);
+        if (traitScheduler != null) {
+            traitScheduler.markDirty();
+            hibernation.wake();
+        }
+        if (getOwningRegistry() instanceof CitizensNPCRegistry) {
+            ((CitizensNPCRegistry) getOwningRegistry()).onTraitAdded(this, trait.getClass());
+        }
+        if (stateReconciler != null) {
+            stateReconciler.markDirty();
+        }
+        markChanged();
+    }
+
+    @Override
+    public TypedMetadataStore data() {
+        // may be called from the superclass constructor before fields are initialised
+        if (typedMetadata == null) {
+            typedMetadata = new TypedMetadataStore(super.data());
+        }
+        return typedMetadata;
+    }
+
     @Override
     public boolean despawn(DespawnReason reason) {
         if (getEntity() == null && reason != DespawnReason.DEATH) {
@@ -97,6 +136,10 @@ public class CitizensNPC extends AbstractNPC {
             PlayerUpdateTask.deregisterPlayer(getEntity());
         }
         navigator.onDespawn();
+        NPCTickBudget.remove(this);
+        NPCChunkIndex.remove(this);
+        NPCSpatialIndex.remove(this);
+        markChanged();
         if (reason == DespawnReason.RELOAD) {
             unloadEvents();
         }
@@ -154,12 +197,23 @@ public class CitizensNPC extends AbstractNPC {
         return isSpawned() ? getEntity().getLocation() : getOrAddTrait(CurrentLocation.class).getLocation();
     }
 
+    public TickLevelOfDetail getTickLevelOfDetail() {
+        return tickLevelOfDetail;
+    }
+
     @Override
     public boolean isFlyable() {
         updateFlyableState();
         return super.isFlyable();
     }
 
+    /**
+     * @return whether the NPC is hibernating, in which case its update logic and entity tick are skipped
+     */
+    public boolean isHibernating() {
+        return hibernation.isHibernating();
+    }
+
     @Override
     public boolean isSpawned() {
         return getEntity() != null && (hasTrait(PacketNPC.class) || NMS.isValid(getEntity()));
@@ -175,6 +229,10 @@ public class CitizensNPC extends AbstractNPC {
     @Override
     public void load(final DataKey root) {
         super.load(root);
+        data().invalidateAll();
+        if (getOwningRegistry() instanceof CitizensNPCRegistry) {
+            ((CitizensNPCRegistry) getOwningRegistry()).updateOwner(this);
+        }
         // Spawn the NPC
         CurrentLocation spawnLocation = getOrAddTrait(CurrentLocation.class);
         if (getOrAddTrait(Spawned.class).shouldSpawn() && spawnLocation.getLocation() != null) {
@@ -188,12 +246,37 @@ public class CitizensNPC extends AbstractNPC {
         navigator.load(root.getRelative("navigator"));
     }
 
+    /**
+     * Marks the NPC as changed so that it is stored by the next incremental save.
+     */
+    public void markChanged() {
+        if (getOwningRegistry() instanceof CitizensNPCRegistry) {
+            ((CitizensNPCRegistry) getOwningRegistry()).markChanged(this);
+        }
+    }
+
     @Override
     public boolean requiresNameHologram() {
         return super.requiresNameHologram()
                 || (getEntityType() != EntityType.ARMOR_STAND && Setting.ALWAYS_USE_NAME_HOLOGRAM.asBoolean());
     }
 
+    @Override
+    public void removeTrait(Class<? extends Trait> traitClass) {
+        super.removeTrait(traitClass);
+        if (traitScheduler != null) {
+            traitScheduler.markDirty();
+            hibernation.wake();
+        }
+        if (getOwningRegistry() instanceof CitizensNPCRegistry) {
+            ((CitizensNPCRegistry) getOwningRegistry()).onTraitRemoved(this, traitClass);
+        }
+        if (stateReconciler != null) {
+            stateReconciler.markDirty();
+        }
+        markChanged();
+    }
+
     private void resetCachedCoord() {
         if (cachedCoord == null)
             return;
@@ -205,9 +288,145 @@ public class CitizensNPC extends AbstractNPC {
         cachedCoord = null;
     }
 
+    /**
+     * Runs the NPC's per-tick logic immediately, bypassing the tick level of detail and tick budget checks.
+     *
+     * @param elapsedTicks
+     *            The number of ticks since the last update
+     */
+    public void runUpdate(int elapsedTicks) {
+        NPCProfiler.push();
+        try {
+            traitScheduler.tick(runnables, elapsedTicks);
+            if (!isSpawned()) {
+                resetCachedCoord();
+                return;
+            }
+            boolean reconcile = stateReconciler.shouldReconcile(getEntity());
+
+            if (data().has(NPC.Metadata.ACTIVATION_RANGE)) {
+                int range = data().get(NPC.Metadata.ACTIVATION_RANGE);
+                if (range == -1 || CitizensAPI.getLocationLookup().getNearbyPlayers(getStoredLocation(), range)
+                        .iterator().hasNext()) {
+                    NMS.activate(getEntity());
+                }
+            }
+
+            if (navigator.isNavigating()) {
+                if (data().get(NPC.Metadata.SWIMMING, true)) {
+                    getEntity().setVelocity(getEntity().getVelocity().multiply(
+                            data().get(NPC.Metadata.WATER_SPEED_MODIFIER, Setting.NPC_WATER_SPEED_MODIFIER.asFloat())));
+                    Location currentDest = navigator.getPathStrategy().getCurrentDestination();
+                    if (currentDest == null || currentDest.getY() > getStoredLocation().getY()) {
+                        NMS.trySwim(getEntity());
+                    }
+                }
+            } else if (data().<Boolean> get(NPC.Metadata.SWIMMING, !SwimmingExaminer.isWaterMob(getEntity()))) {
+                Gravity trait = getTraitNullable(Gravity.class);
+                if (trait == null || trait.hasGravity()) {
+                    NMS.trySwim(getEntity());
+                }
+            }
+
+            if (reconcile && SUPPORT_GLOWING && data().has(NPC.Metadata.GLOWING)) {
+                boolean glowing = data().get(NPC.Metadata.GLOWING, false);
+                try {
+                    if (stateReconciler.apply(Property.GLOWING, glowing)) {
+                        getEntity().setGlowing(glowing);
+                    }
+                } catch (NoSuchMethodError e) {
+                    SUPPORT_GLOWING = false;
+                }
+            }
+
+            if (reconcile && SUPPORT_SILENT && data().has(NPC.Metadata.SILENT)) {
+                boolean silent = Boolean.parseBoolean(data().get(NPC.Metadata.SILENT).toString());
+                try {
+                    if (stateReconciler.apply(Property.SILENT, silent)) {
+                        getEntity().setSilent(silent);
+                    }
+                } catch (NoSuchMethodError e) {
+                    SUPPORT_SILENT = false;
+                }
+            }
+
+            boolean isLiving = getEntity() instanceof LivingEntity;
+            if (isUpdating(NPCUpdate.PACKET)) {
+                if (data().get(NPC.Metadata.KEEP_CHUNK_LOADED, Setting.KEEP_CHUNKS_LOADED.asBoolean())) {
+                    ChunkCoord currentCoord = new ChunkCoord(getStoredLocation());
+                    if (!currentCoord.equals(cachedCoord)) {
+                        resetCachedCoord();
+                        currentCoord.setForceLoaded(true);
+                        CHUNK_LOADERS.put(currentCoord, this);
+                        cachedCoord = currentCoord;
+                    }
+                }
+                if (isLiving) {
+                    updateScoreboard();
+                }
+                // periodically reapply entity state in case it was changed externally
+                stateReconciler.invalidate();
+                updateCounter = 0;
+            }
+
+            if (reconcile) {
+                updateCustomNameVisibility();
+            }
+
+            if (reconcile && isLiving) {
+                boolean protectedNPC = isProtected();
+                if (stateReconciler.apply(Property.KNOCKBACK_RESISTANCE, protectedNPC)) {
+                    NMS.setKnockbackResistance((LivingEntity) getEntity(), protectedNPC ? 1D : 0D);
+                }
+                if (SUPPORT_PICKUP_ITEMS) {
+                    boolean pickupItems = data().get(NPC.Metadata.PICKUP_ITEMS, !protectedNPC);
+                    try {
+                        if (stateReconciler.apply(Property.CAN_PICKUP_ITEMS, pickupItems)) {
+                            ((LivingEntity) getEntity()).setCanPickupItems(pickupItems);
+                        }
+                    } catch (Throwable t) {
+                        SUPPORT_PICKUP_ITEMS = false;
+                    }
+                }
+            }
+
+            if (isLiving && getEntity() instanceof Player) {
+                updateUsingItemState((Player) getEntity());
+                if (data().has(NPC.Metadata.SNEAKING) && !hasTrait(SneakTrait.class)) {
+                    addTrait(SneakTrait.class);
+                }
+            }
+
+            NPCProfiler.push();
+            try {
+                navigator.run();
+            } finally {
+                NPCProfiler.popSection("CitizensNavigator.run");
+            }
+            NPCProfiler.push();
+            try {
+                getDefaultGoalController().run();
+            } finally {
+                NPCProfiler.popSection("GoalController.run");
+            }
+
+            updateCounter += elapsedTicks;
+        } catch (Exception ex) {
+            Throwable error = Throwables.getRootCause(ex);
+            Messaging.logTr(Messages.EXCEPTION_UPDATING_NPC, getId(), error.getMessage());
+            error.printStackTrace();
+        } finally {
+            NPCProfiler.popNPC(this);
+        }
+    }
+
     @Override
     public void save(DataKey root) {
         super.save(root);
+        if (getOwningRegistry() instanceof CitizensNPCRegistry) {
+            // the owner may have been changed without going through Citizens
+            ((CitizensNPCRegistry) getOwningRegistry()).updateOwner(this);
+        }
         if (!data().get(NPC.Metadata.SHOULD_SAVE, true))
             return;
         navigator.save(root.getRelative("navigator"));
@@ -265,7 +484,15 @@ public class CitizensNPC extends AbstractNPC {
 
     @Override
     public void setName(String name) {
+        String oldName = getName();
         super.setName(name);
+        if (stateReconciler != null) {
+            stateReconciler.markDirty();
+        }
+        if (getOwningRegistry() instanceof CitizensNPCRegistry) {
+            ((CitizensNPCRegistry) getOwningRegistry()).onNameChanged(this, oldName);
+        }
+        markChanged();
 
         if (requiresNameHologram() && !hasTrait(HologramTrait.class)) {
             addTrait(HologramTrait.class);
@@ -367,6 +594,11 @@ public class CitizensNPC extends AbstractNPC {
                 }
 
                 navigator.onSpawn();
+                NPCChunkIndex.update(CitizensNPC.this, getEntity().getLocation(CACHE_LOCATION));
+                NPCSpatialIndex.update(CitizensNPC.this, CACHE_LOCATION);
+                markChanged();
+                tickLevelOfDetail.reset();
+                hibernation.wake();
 
                 for (Trait trait : Iterables.toArray(traits.values(), Trait.class)) {
                     try {
@@ -450,10 +682,14 @@ public class CitizensNPC extends AbstractNPC {
                 if (event.isCancelled())
                     return;
                 NMS.setLocationDirectly(getEntity(), location);
+                NPCChunkIndex.update(this, location);
+                NPCSpatialIndex.update(this, location);
                 return;
             }
         }
         super.teleport(location, reason);
+        NPCChunkIndex.update(this, location);
+        NPCSpatialIndex.update(this, location);
     }
 
     @Override
@@ -464,99 +700,18 @@ public class CitizensNPC extends AbstractNPC {
 
     @Override
     public void update() {
-        try {
-            super.update();
-            if (!isSpawned()) {
-                resetCachedCoord();
-                return;
-            }
-
-            if (data().has(NPC.Metadata.ACTIVATION_RANGE)) {
-                int range = data().get(NPC.Metadata.ACTIVATION_RANGE);
-                if (range == -1 || CitizensAPI.getLocationLookup().getNearbyPlayers(getStoredLocation(), range)
-                        .iterator().hasNext()) {
-                    NMS.activate(getEntity());
-                }
-            }
-
-            if (navigator.isNavigating()) {
-                if (data().get(NPC.Metadata.SWIMMING, true)) {
-                    getEntity().setVelocity(getEntity().getVelocity().multiply(
-                            data().get(NPC.Metadata.WATER_SPEED_MODIFIER, Setting.NPC_WATER_SPEED_MODIFIER.asFloat())));
-                    Location currentDest = navigator.getPathStrategy().getCurrentDestination();
-                    if (currentDest == null || currentDest.getY() > getStoredLocation().getY()) {
-                        NMS.trySwim(getEntity());
-                    }
-                }
-            } else if (data().<Boolean> get(NPC.Metadata.SWIMMING, !SwimmingExaminer.isWaterMob(getEntity()))) {
-                Gravity trait = getTraitNullable(Gravity.class);
-                if (trait == null || trait.hasGravity()) {
-                    NMS.trySwim(getEntity());
-                }
-            }
-
-            if (SUPPORT_GLOWING && data().has(NPC.Metadata.GLOWING)) {
-                try {
-                    getEntity().setGlowing(data().get(NPC.Metadata.GLOWING, false));
-                } catch (NoSuchMethodError e) {
-                    SUPPORT_GLOWING = false;
-                }
-            }
-
-            if (SUPPORT_SILENT && data().has(NPC.Metadata.SILENT)) {
-                try {
-                    getEntity().setSilent(Boolean.parseBoolean(data().get(NPC.Metadata.SILENT).toString()));
-                } catch (NoSuchMethodError e) {
-                    SUPPORT_SILENT = false;
-                }
-            }
-
-            boolean isLiving = getEntity() instanceof LivingEntity;
-            if (isUpdating(NPCUpdate.PACKET)) {
-                if (data().get(NPC.Metadata.KEEP_CHUNK_LOADED, Setting.KEEP_CHUNKS_LOADED.asBoolean())) {
-                    ChunkCoord currentCoord = new ChunkCoord(getStoredLocation());
-                    if (!currentCoord.equals(cachedCoord)) {
-                        resetCachedCoord();
-                        currentCoord.setForceLoaded(true);
-                        CHUNK_LOADERS.put(currentCoord, this);
-                        cachedCoord = currentCoord;
-                    }
-                }
-                if (isLiving) {
-                    updateScoreboard();
-                }
-                updateCounter = 0;
-            }
-
-            updateCustomNameVisibility();
-
-            if (isLiving) {
-                NMS.setKnockbackResistance((LivingEntity) getEntity(), isProtected() ? 1D : 0D);
-                if (SUPPORT_PICKUP_ITEMS) {
-                    try {
-                        ((LivingEntity) getEntity())
-                                .setCanPickupItems(data().get(NPC.Metadata.PICKUP_ITEMS, !isProtected()));
-                    } catch (Throwable t) {
-                        SUPPORT_PICKUP_ITEMS = false;
-                    }
-                }
-            }
-
-            if (isLiving && getEntity() instanceof Player) {
-                updateUsingItemState((Player) getEntity());
-                if (data().has(NPC.Metadata.SNEAKING) && !hasTrait(SneakTrait.class)) {
-                    addTrait(SneakTrait.class);
-                }
-            }
-
-            navigator.run();
-
-            updateCounter++;
-        } catch (Exception ex) {
-            Throwable error = Throwables.getRootCause(ex);
-            Messaging.logTr(Messages.EXCEPTION_UPDATING_NPC, getId(), error.getMessage());
-            error.printStackTrace();
+        if (isSpawned()) {
+            // refreshed even when the rest of the update is skipped, as the entity can still be moved by physics
+            NPCChunkIndex.update(this, getEntity().getLocation(CACHE_LOCATION));
         }
+        if (hibernation.tick(this, traits.values()))
+            return;
+        int elapsedTicks = tickLevelOfDetail.tick(this);
+        if (elapsedTicks == 0 || NPCTickBudget.defer(this, elapsedTicks))
+            return;
+        long start = System.nanoTime();
+        runUpdate(elapsedTicks);
+        NPCTickBudget.record(System.nanoTime() - start);
     }
 
     @Override
@@ -574,9 +729,15 @@ public class CitizensNPC extends AbstractNPC {
             nameplateVisible = "false";
         }
         if (nameplateVisible.equals("true") || nameplateVisible.equals("hover")) {
-            updateCustomName();
+            Object name = coloredNameComponentCache != null ? coloredNameComponentCache : getFullName();
+            if (stateReconciler.apply(Property.CUSTOM_NAME, name)) {
+                updateCustomName();
+            }
+        }
+        boolean visible = Boolean.parseBoolean(nameplateVisible);
+        if (stateReconciler.apply(Property.CUSTOM_NAME_VISIBLE, visible)) {
+            getEntity().setCustomNameVisible(visible);
         }
-        getEntity().setCustomNameVisible(Boolean.parseBoolean(nameplateVisible));
     }
 
     private void updateFlyableState() {
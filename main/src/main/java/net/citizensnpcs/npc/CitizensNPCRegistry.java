@@ -1,21 +1,33 @@
 package net.citizensnpcs.npc;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.event.HandlerList;
 import org.bukkit.inventory.ItemStack;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 
 import gnu.trove.map.hash.TIntObjectHashMap;
 import net.citizensnpcs.Settings.Setting;
@@ -27,15 +39,25 @@ import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.npc.NPCDataStore;
 import net.citizensnpcs.api.npc.NPCRegistry;
 import net.citizensnpcs.api.trait.Trait;
+import net.citizensnpcs.api.trait.trait.Owner;
 import net.citizensnpcs.npc.ai.NPCHolder;
 import net.citizensnpcs.trait.ArmorStandTrait;
 import net.citizensnpcs.trait.LookClose;
 import net.citizensnpcs.trait.MountTrait;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.NPCChunkIndex;
 
 public class CitizensNPCRegistry implements NPCRegistry {
+    private final Set<NPC> changed = Sets.newHashSet();
+    private boolean dataRemoved;
+    private LazyNPCLoader lazyLoader;
     private final String name;
+    private final SetMultimap<String, NPC> npcsByName = HashMultimap.create();
+    private final SetMultimap<Class<? extends Trait>, NPC> npcsByTrait = HashMultimap.create();
     private final TIntObjectHashMap<NPC> npcs = new TIntObjectHashMap<NPC>();
+    // keyed by owner id, which is null for NPCs owned by the server
+    private final Multiset<UUID> ownerCounts = HashMultiset.create();
+    private final Map<NPC, UUID> owners = Maps.newHashMap();
     private final NPCDataStore saves;
     private final Map<UUID, NPC> uniqueNPCs = Maps.newHashMap();
 
@@ -48,6 +70,30 @@ public class CitizensNPCRegistry implements NPCRegistry {
         name = registryName;
     }
 
+    /**
+     * Forgets all pending changes, for example after loading every NPC from the data store.
+     */
+    public void clearChanged() {
+        changed.clear();
+        dataRemoved = false;
+        for (NPC npc : npcs.valueCollection()) {
+            if (npc instanceof CitizensNPC) {
+                ((CitizensNPC) npc).data().consumeDirty();
+            }
+        }
+    }
+
+    /**
+     * Marks NPCs with metadata marked as dirty as changed.
+     */
+    private void collectDirty() {
+        for (NPC npc : npcs.valueCollection()) {
+            if (npc instanceof CitizensNPC && ((CitizensNPC) npc).data().consumeDirty()) {
+                changed.add(npc);
+            }
+        }
+    }
+
     private CitizensNPC create(EntityType type, UUID uuid, int id, String name) {
         return new CitizensNPC(uuid, id, name, EntityControllers.createForType(type), this);
     }
@@ -74,6 +120,7 @@ public class CitizensNPCRegistry implements NPCRegistry {
             throw new IllegalStateException("Could not create NPC.");
         npcs.put(id, npc);
         uniqueNPCs.put(npc.getUniqueId(), npc);
+        index(npc);
         Bukkit.getPluginManager().callEvent(new NPCCreateEvent(npc));
         if (type == EntityType.ARMOR_STAND && !npc.hasTrait(ArmorStandTrait.class)) {
             npc.addTrait(ArmorStandTrait.class);
@@ -105,13 +152,18 @@ public class CitizensNPCRegistry implements NPCRegistry {
         npc.despawn(DespawnReason.REMOVAL);
         npcs.remove(npc.getId());
         uniqueNPCs.remove(npc.getUniqueId());
+        unindex(npc);
         if (saves != null) {
             saves.clearData(npc);
+            dataRemoved = true;
         }
     }
 
     @Override
     public void deregisterAll() {
+        if (lazyLoader != null) {
+            lazyLoader.loadAll();
+        }
         Iterator<NPC> itr = iterator();
         while (itr.hasNext()) {
             NPC npc = itr.next();
@@ -123,6 +175,7 @@ public class CitizensNPCRegistry implements NPCRegistry {
             itr.remove();
             if (saves != null) {
                 saves.clearData(npc);
+                dataRemoved = true;
             }
         }
     }
@@ -142,19 +195,31 @@ public class CitizensNPCRegistry implements NPCRegistry {
     }
 
     private int generateIntegerId() {
-        return saves.createUniqueNPCId(this);
+        int id = saves.createUniqueNPCId(this);
+        while (lazyLoader != null && lazyLoader.contains(id)) {
+            id = saves.createUniqueNPCId(this);
+        }
+        return id;
     }
 
     @Override
     public NPC getById(int id) {
         if (id < 0)
             throw new IllegalArgumentException("invalid id");
-        return npcs.get(id);
+        NPC npc = npcs.get(id);
+        if (npc == null && lazyLoader != null) {
+            npc = lazyLoader.load(id);
+        }
+        return npc;
     }
 
     @Override
     public NPC getByUniqueId(UUID uuid) {
-        return uniqueNPCs.get(uuid);
+        NPC npc = uniqueNPCs.get(uuid);
+        if (npc == null && lazyLoader != null) {
+            npc = lazyLoader.load(uuid);
+        }
+        return npc;
     }
 
     @Override
@@ -174,6 +239,21 @@ public class CitizensNPCRegistry implements NPCRegistry {
         return null;
     }
 
+    /**
+     * @return the number of NPCs which have changed since they were last stored
+     */
+    public int getChangedCount() {
+        collectDirty();
+        return changed.size();
+    }
+
+    /**
+     * @return the loader of NPCs which haven't been loaded yet, or null if every NPC is loaded
+     */
+    public LazyNPCLoader getLazyLoader() {
+        return lazyLoader;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -188,15 +268,75 @@ public class CitizensNPCRegistry implements NPCRegistry {
         return NMS.getNPC(entity);
     }
 
+    /**
+     * @return the NPCs whose name matches the given name, ignoring case
+     */
+    public Collection<NPC> getNPCsByName(String name) {
+        if (lazyLoader != null) {
+            lazyLoader.loadNamed(name);
+        }
+        return ImmutableSet.copyOf(npcsByName.get(name.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * @return the spawned NPCs in the given world
+     */
+    public Collection<NPC> getNPCsInWorld(World world) {
+        List<NPC> result = new ArrayList<NPC>();
+        for (NPC npc : NPCChunkIndex.getNPCs(world)) {
+            if (npc.getOwningRegistry() == this) {
+                result.add(npc);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the NPCs which have a trait of exactly the given class
+     */
+    public Collection<NPC> getNPCsWithTrait(Class<? extends Trait> trait) {
+        return ImmutableList.copyOf(npcsByTrait.get(trait));
+    }
+
+    /**
+     * Returns the number of NPCs owned by the given owner from the owner index, including stored NPCs owned by a
+     * player which haven't been lazily loaded yet. The index is refreshed when the {@link Owner} trait is added,
+     * removed or loaded, when an NPC is stored and by {@link #updateOwner(NPC)}.
+     *
+     * @param owner
+     *            The owner id, or null for the server
+     */
+    public int getOwnedNPCCount(UUID owner) {
+        int count = ownerCounts.count(owner);
+        if (owner != null && lazyLoader != null) {
+            count += lazyLoader.getOwnedCount(owner);
+        }
+        return count;
+    }
+
+    private void index(NPC npc) {
+        npcsByName.put(npc.getName().toLowerCase(Locale.ROOT), npc);
+        for (Trait trait : npc.getTraits()) {
+            npcsByTrait.put(trait.getClass(), npc);
+        }
+        updateOwner(npc);
+    }
+
     @Override
     public boolean isNPC(Entity entity) {
         return getNPC(entity) != null;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Only iterates NPCs which have been loaded, see {@link LazyNPCLoader}.
+     */
     @Override
     public Iterator<NPC> iterator() {
         return new Iterator<NPC>() {
             Iterator<NPC> itr = npcs.valueCollection().iterator();
+            NPC last;
             UUID lastUUID;
 
             @Override
@@ -210,6 +350,7 @@ public class CitizensNPCRegistry implements NPCRegistry {
                 if (npc != null && npc.getUniqueId() != null) {
                     lastUUID = npc.getUniqueId();
                 }
+                last = npc;
                 return npc;
             }
 
@@ -220,20 +361,127 @@ public class CitizensNPCRegistry implements NPCRegistry {
                     uniqueNPCs.remove(lastUUID);
                     lastUUID = null;
                 }
+                if (last != null) {
+                    unindex(last);
+                    last = null;
+                }
             }
         };
     }
 
+    /**
+     * Marks the NPC as changed so that it is stored by the next {@link #storeChanged()}.
+     */
+    public void markChanged(NPC npc) {
+        if (npcs.get(npc.getId()) == npc) {
+            changed.add(npc);
+        }
+    }
+
+    void onNameChanged(NPC npc, String oldName) {
+        if (oldName != null) {
+            npcsByName.remove(oldName.toLowerCase(Locale.ROOT), npc);
+        }
+        if (npcs.get(npc.getId()) == npc) {
+            npcsByName.put(npc.getName().toLowerCase(Locale.ROOT), npc);
+        }
+    }
+
+    void onTraitAdded(NPC npc, Class<? extends Trait> trait) {
+        if (npcs.get(npc.getId()) == npc) {
+            npcsByTrait.put(trait, npc);
+        }
+        if (trait == Owner.class) {
+            updateOwner(npc);
+        }
+    }
+
+    void onTraitRemoved(NPC npc, Class<? extends Trait> trait) {
+        npcsByTrait.remove(trait, npc);
+        if (trait == Owner.class) {
+            updateOwner(npc);
+        }
+    }
+
     @Override
     public void saveToStore() {
-        saves.storeAll(this);
+        storeAll();
         saves.saveToDiskImmediate();
     }
 
+    /**
+     * Sets the loader used to load stored NPCs on demand, or null to disable lazy loading.
+     */
+    public void setLazyLoader(LazyNPCLoader lazyLoader) {
+        this.lazyLoader = lazyLoader;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Unlike {@link #iterator()}, this loads every NPC which hasn't been lazily loaded yet.
+     */
     @Override
     public Iterable<NPC> sorted() {
+        if (lazyLoader != null) {
+            lazyLoader.loadAll();
+        }
         List<NPC> vals = new ArrayList<NPC>(npcs.valueCollection());
         Collections.sort(vals, (a, b) -> Integer.compare(a.getId(), b.getId()));
         return vals;
     }
+
+    /**
+     * Stores every NPC in the data store without saving it to disk.
+     */
+    public void storeAll() {
+        saves.storeAll(this);
+        clearChanged();
+    }
+
+    /**
+     * Stores only the NPCs which have changed since they were last stored, including NPCs with metadata marked as
+     * dirty, without saving the data store to disk.
+     *
+     * @return whether the data store was modified and needs to be saved
+     */
+    public boolean storeChanged() {
+        collectDirty();
+        boolean modified = dataRemoved || !changed.isEmpty();
+        List<NPC> toStore = new ArrayList<NPC>(changed);
+        clearChanged();
+        for (NPC npc : toStore) {
+            saves.store(npc);
+        }
+        return modified;
+    }
+
+    private void unindex(NPC npc) {
+        changed.remove(npc);
+        npcsByName.remove(npc.getName().toLowerCase(Locale.ROOT), npc);
+        for (Trait trait : npc.getTraits()) {
+            npcsByTrait.remove(trait.getClass(), npc);
+        }
+        if (owners.containsKey(npc)) {
+            ownerCounts.remove(owners.remove(npc));
+        }
+    }
+
+    /**
+     * Refreshes the owner index for the given NPC. Should be called after changing the {@link Owner} of an NPC.
+     */
+    public void updateOwner(NPC npc) {
+        Owner trait = npc.getTraitNullable(Owner.class);
+        boolean counted = trait != null && npcs.get(npc.getId()) == npc;
+        UUID owner = counted ? trait.getOwnerId() : null;
+        if (owners.containsKey(npc)) {
+            if (counted && Objects.equals(owner, owners.get(npc)))
+                return;
+            ownerCounts.remove(owners.remove(npc));
+        }
+        if (counted) {
+            owners.put(npc, owner);
+            ownerCounts.add(owner);
+        }
+    }
 }
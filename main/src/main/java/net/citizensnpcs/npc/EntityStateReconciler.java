@@ -0,0 +1,72 @@
+package net.citizensnpcs.npc;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.bukkit.entity.Entity;
+
+/**
+ * Tracks the entity state last applied by an NPC so that it is only reapplied when the desired state actually changes.
+ * Many entity setters mark entity data as dirty and send metadata packets even when the value is unchanged.
+ *
+ * Reconciliation only needs to run after a change that could affect the desired state, signalled through
+ * {@link #markDirty()}, or after the entity itself has changed.
+ */
+public class EntityStateReconciler {
+    private final Object[] applied = new Object[Property.values().length];
+    private boolean dirty = true;
+    private Entity entity;
+
+    public EntityStateReconciler() {
+        invalidate();
+    }
+
+    /**
+     * Checks whether the given property needs to be applied to the entity and records the desired value as applied.
+     *
+     * @return true if the desired value differs from the last applied value
+     */
+    public boolean apply(Property property, Object desired) {
+        int ordinal = property.ordinal();
+        if (Objects.equals(applied[ordinal], desired))
+            return false;
+        applied[ordinal] = desired;
+        return true;
+    }
+
+    /**
+     * Forgets all applied values so that the next reconciliation reapplies every property.
+     */
+    public void invalidate() {
+        Arrays.fill(applied, UNSET);
+        dirty = true;
+    }
+
+    public void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * @return whether the NPC should reconcile its entity state this tick, clearing the dirty flag
+     */
+    public boolean shouldReconcile(Entity current) {
+        if (current != entity) {
+            entity = current;
+            invalidate();
+        }
+        boolean wasDirty = dirty;
+        dirty = false;
+        return wasDirty;
+    }
+
+    public enum Property {
+        CAN_PICKUP_ITEMS,
+        CUSTOM_NAME,
+        CUSTOM_NAME_VISIBLE,
+        GLOWING,
+        KNOCKBACK_RESISTANCE,
+        SILENT;
+    }
+
+    private static final Object UNSET = new Object();
+}
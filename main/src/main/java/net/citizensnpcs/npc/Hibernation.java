@@ -0,0 +1,94 @@
+package net.citizensnpcs.npc;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.bukkit.Location;
+
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.trait.Trait;
+import net.citizensnpcs.trait.AlwaysActive;
+
+/**
+ * Puts spawned NPCs that nobody can observe into a hibernating state where their update logic and, for player NPCs,
+ * the entity tick are skipped entirely. An NPC may hibernate if there are no players within the configured range, it
+ * isn't navigating, has no goals and has no {@link AlwaysActive} traits.
+ *
+ * Checking whether an NPC can hibernate is done periodically, while waking up is checked every tick so that the NPC
+ * is active again as soon as a player comes into range.
+ */
+public class Hibernation {
+    private boolean hibernating;
+    private int sinceCheck;
+
+    public Hibernation(int phase) {
+        this.sinceCheck = Math.abs(phase) % Math.max(1, Setting.HIBERNATION_CHECK_TICKS.asInt());
+    }
+
+    private boolean canHibernate(NPC npc, Collection<Trait> traits) {
+        if (!npc.isSpawned() || npc.getNavigator().isNavigating() || npc.data().has(NPC.Metadata.ACTIVATION_RANGE))
+            return false;
+        if (npc.getDefaultGoalController().iterator().hasNext())
+            return false;
+        for (Trait trait : traits) {
+            if (isAlwaysActive(trait.getClass()))
+                return false;
+        }
+        return !hasNearbyPlayers(npc);
+    }
+
+    private boolean hasNearbyPlayers(NPC npc) {
+        Location loc = npc.getStoredLocation();
+        return CitizensAPI.getLocationLookup().getNearbyPlayers(loc, Setting.HIBERNATION_RANGE.asDouble()).iterator()
+                .hasNext();
+    }
+
+    public boolean isHibernating() {
+        return hibernating;
+    }
+
+    /**
+     * Wakes the NPC up immediately, e.g. because its traits changed.
+     */
+    public void wake() {
+        hibernating = false;
+        sinceCheck = 0;
+    }
+
+    /**
+     * Should be called once per tick.
+     *
+     * @return whether the NPC is hibernating and should skip this tick
+     */
+    public boolean tick(NPC npc, Collection<Trait> traits) {
+        if (!Setting.HIBERNATION_ENABLED.asBoolean()) {
+            hibernating = false;
+            return false;
+        }
+        if (hibernating) {
+            if (npc.isSpawned() && !npc.getNavigator().isNavigating() && !hasNearbyPlayers(npc))
+                return true;
+            wake();
+            return false;
+        }
+        if (++sinceCheck < Setting.HIBERNATION_CHECK_TICKS.asInt())
+            return false;
+        sinceCheck = 0;
+        hibernating = canHibernate(npc, traits);
+        return hibernating;
+    }
+
+    private static boolean isAlwaysActive(Class<? extends Trait> clazz) {
+        Boolean cached = ALWAYS_ACTIVE.get(clazz);
+        if (cached == null) {
+            ALWAYS_ACTIVE.put(clazz, cached = clazz.isAnnotationPresent(AlwaysActive.class));
+        }
+        return cached;
+    }
+
+    private static final Map<Class<? extends Trait>, Boolean> ALWAYS_ACTIVE = Maps.newHashMap();
+}
@@ -0,0 +1,218 @@
+package net.citizensnpcs.npc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.storage.NPCDataLoader;
+import net.citizensnpcs.storage.RegionNPCDataStore;
+
+/**
+ * Defers loading stored NPCs until they are needed. Only the index of a {@link RegionNPCDataStore} is read up front,
+ * and an NPC and its traits are loaded (reading its region file if needed) the first time its chunk loads or it is
+ * looked up by id, UUID or name through the registry. Entries are grouped by world and 32x32 chunk region, so that a
+ * chunk load only checks the NPCs stored in its region.
+ *
+ * NPCs which haven't been loaded yet are not returned when iterating the registry or by
+ * {@link CitizensNPCRegistry#getNPCsWithTrait(Class)}, as their traits are not known until they load.
+ * {@link CitizensNPCRegistry#sorted()} loads every NPC first, and owner counts include unloaded NPCs. Their stored data
+ * is left untouched when saving.
+ */
+public class LazyNPCLoader {
+    private final TIntObjectHashMap<Entry> byId = new TIntObjectHashMap<Entry>();
+    private final SetMultimap<String, Entry> byName = HashMultimap.create();
+    private final Map<String, TLongObjectHashMap<List<Entry>>> byRegion = Maps.newHashMap();
+    private final Map<UUID, Entry> byUUID = Maps.newHashMap();
+    private final CitizensNPCRegistry registry;
+    private final RegionNPCDataStore store;
+
+    public LazyNPCLoader(CitizensNPCRegistry registry, RegionNPCDataStore store) {
+        this.registry = registry;
+        this.store = store;
+    }
+
+    public boolean contains(int id) {
+        return byId.containsKey(id);
+    }
+
+    /**
+     * @return the number of NPCs which haven't been loaded yet owned by the given owner
+     */
+    public int getOwnedCount(UUID owner) {
+        int count = 0;
+        for (Entry entry : byId.valueCollection()) {
+            if (owner.equals(entry.owner)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Indexes every stored NPC, then loads the NPCs which are needed straight away: those in chunks which are already
+     * loaded and those without a stored location.
+     */
+    public void index() {
+        List<Entry> immediate = Lists.newArrayList();
+        for (DataKey key : store.getIndex().getIntegerSubKeys()) {
+            Entry entry = new Entry(Integer.parseInt(key.name()), key);
+            byId.put(entry.id, entry);
+            byName.put(entry.name, entry);
+            if (entry.uuid != null) {
+                byUUID.put(entry.uuid, entry);
+            }
+            if (entry.world == null) {
+                immediate.add(entry);
+                continue;
+            }
+            byRegion.computeIfAbsent(entry.world, k -> new TLongObjectHashMap<List<Entry>>());
+            TLongObjectHashMap<List<Entry>> regions = byRegion.get(entry.world);
+            long region = regionKey(entry.chunkX, entry.chunkZ);
+            List<Entry> entries = regions.get(region);
+            if (entries == null) {
+                regions.put(region, entries = new ArrayList<Entry>());
+            }
+            entries.add(entry);
+            World world = Bukkit.getWorld(entry.world);
+            if (world != null && world.isChunkLoaded(entry.chunkX, entry.chunkZ)) {
+                immediate.add(entry);
+            }
+        }
+        for (Entry entry : immediate) {
+            load(entry);
+        }
+    }
+
+    private NPC load(Entry entry) {
+        byId.remove(entry.id);
+        byName.remove(entry.name, entry);
+        if (entry.uuid != null) {
+            byUUID.remove(entry.uuid);
+        }
+        if (entry.world != null) {
+            TLongObjectHashMap<List<Entry>> regions = byRegion.get(entry.world);
+            long region = regionKey(entry.chunkX, entry.chunkZ);
+            List<Entry> entries = regions.get(region);
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                regions.remove(region);
+            }
+        }
+        DataKey key = store.getKey(entry.id);
+        return key == null ? null : NPCDataLoader.load(registry, entry.id, key);
+    }
+
+    /**
+     * Loads the NPC with the given id if it hasn't been loaded yet.
+     *
+     * @return the loaded NPC, or null if there is no unloaded NPC with the id
+     */
+    public NPC load(int id) {
+        Entry entry = byId.get(id);
+        return entry == null ? null : load(entry);
+    }
+
+    /**
+     * Loads the NPC with the given UUID if it hasn't been loaded yet.
+     *
+     * @return the loaded NPC, or null if there is no unloaded NPC with the UUID
+     */
+    public NPC load(UUID uuid) {
+        Entry entry = byUUID.get(uuid);
+        return entry == null ? null : load(entry);
+    }
+
+    /**
+     * Loads every NPC which hasn't been loaded yet.
+     */
+    public void loadAll() {
+        for (Entry entry : byId.valueCollection().toArray(new Entry[byId.size()])) {
+            load(entry);
+        }
+    }
+
+    /**
+     * Loads every unloaded NPC stored in the given chunk.
+     */
+    public void loadChunk(Chunk chunk) {
+        TLongObjectHashMap<List<Entry>> regions = byRegion.get(chunk.getWorld().getName());
+        if (regions == null)
+            return;
+        List<Entry> entries = regions.get(regionKey(chunk.getX(), chunk.getZ()));
+        if (entries == null)
+            return;
+        for (Entry entry : Lists.newArrayList(entries)) {
+            if (entry.chunkX == chunk.getX() && entry.chunkZ == chunk.getZ()) {
+                load(entry);
+            }
+        }
+    }
+
+    /**
+     * Loads every unloaded NPC with the given name, ignoring case.
+     */
+    public void loadNamed(String name) {
+        for (Entry entry : Lists.newArrayList(byName.get(name.toLowerCase(Locale.ROOT)))) {
+            load(entry);
+        }
+    }
+
+    /**
+     * @return the number of NPCs which haven't been loaded yet
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    private static class Entry {
+        private int chunkX;
+        private int chunkZ;
+        private final int id;
+        private final String name;
+        private final UUID owner;
+        private final UUID uuid;
+        private String world;
+
+        private Entry(int id, DataKey key) {
+            this.id = id;
+            this.name = key.getString("name", "").toLowerCase(Locale.ROOT);
+            this.uuid = parseUUID(key.getString("uuid", ""));
+            this.owner = parseUUID(key.getString("traits.owner.uuid", ""));
+            if (key.keyExists("traits.location.world")) {
+                this.world = key.getString("traits.location.world");
+                this.chunkX = (int) Math.floor(key.getDouble("traits.location.x")) >> 4;
+                this.chunkZ = (int) Math.floor(key.getDouble("traits.location.z")) >> 4;
+            }
+        }
+    }
+
+    private static UUID parseUUID(String uuid) {
+        if (uuid.isEmpty())
+            return null;
+        try {
+            return UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long regionKey(int chunkX, int chunkZ) {
+        return ((long) (chunkX >> RegionNPCDataStore.REGION_SHIFT) << 32)
+                | ((chunkZ >> RegionNPCDataStore.REGION_SHIFT) & 0xFFFFFFFFL);
+    }
+}
@@ -2,7 +2,11 @@ package net.citizensnpcs.npc;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -24,6 +28,7 @@ import net.citizensnpcs.api.util.YamlStorage.YamlKey;
 
 public class Template {
     private final String name;
+    private final Operation[] operations;
     private final boolean override;
     private final Map<String, Object> replacements;
 
@@ -31,34 +36,48 @@ public class Template {
         this.replacements = replacements;
         this.override = override;
         this.name = name;
+        this.operations = compile(replacements);
     }
 
-    @SuppressWarnings("unchecked")
     public void apply(NPC npc) {
-        MemoryDataKey memoryKey = new MemoryDataKey();
-        boolean wasSpawned = npc.isSpawned();
-        if (wasSpawned) {
-            npc.despawn(DespawnReason.PENDING_RESPAWN);
-        }
-        npc.save(memoryKey);
-        List<Node> queue = Lists.newArrayList(new Node("", replacements));
-        for (int i = 0; i < queue.size(); i++) {
-            Node node = queue.get(i);
-            for (Entry<String, Object> entry : node.map.entrySet()) {
-                String fullKey = node.headKey.isEmpty() ? entry.getKey() : node.headKey + '.' + entry.getKey();
-                if (entry.getValue() instanceof Map<?, ?>) {
-                    queue.add(new Node(fullKey, (Map<String, Object>) entry.getValue()));
-                    continue;
+        applyAll(Collections.singletonList(npc));
+    }
+
+    /**
+     * Applies the template to every NPC. Each NPC is still saved, modified and reloaded on its own; applying to several
+     * NPCs at once only despawns them all before and respawns them all after, so that no NPC is visible with part of
+     * the template applied. NPCs that fail to load the modified data are skipped, and are respawned regardless.
+     */
+    public void applyAll(Collection<NPC> npcs) {
+        List<NPC> respawn = Lists.newArrayListWithCapacity(npcs.size());
+        try {
+            for (NPC npc : npcs) {
+                if (npc.isSpawned()) {
+                    npc.despawn(DespawnReason.PENDING_RESPAWN);
+                    respawn.add(npc);
+                }
+            }
+            for (NPC npc : npcs) {
+                try {
+                    MemoryDataKey memoryKey = new MemoryDataKey();
+                    npc.save(memoryKey);
+                    for (Operation operation : operations) {
+                        if (!override && !memoryKey.keyExists(operation.path))
+                            continue;
+                        memoryKey.setRaw(operation.path, operation.value);
+                    }
+                    npc.load(memoryKey);
+                } catch (Throwable t) {
+                    Messaging.severe("Unable to apply template", name, "to NPC", npc.getId());
+                    t.printStackTrace();
+                }
+            }
+        } finally {
+            for (NPC npc : respawn) {
+                if (npc.getStoredLocation() != null) {
+                    npc.spawn(npc.getStoredLocation(), SpawnReason.RESPAWN);
                 }
-                boolean overwrite = memoryKey.keyExists(fullKey) | override;
-                if (!overwrite || fullKey.equals("uuid"))
-                    continue;
-                memoryKey.setRaw(fullKey, entry.getValue());
             }
-        }
-        npc.load(memoryKey);
-        if (wasSpawned && npc.getStoredLocation() != null) {
-            npc.spawn(npc.getStoredLocation(), SpawnReason.RESPAWN);
         }
     }
 
@@ -119,13 +138,13 @@ public class Template {
         }
     }
 
-    private static class Node {
-        String headKey;
-        Map<String, Object> map;
+    private static class Operation {
+        private final String path;
+        private final Object value;
 
-        private Node(String headKey, Map<String, Object> map) {
-            this.headKey = headKey;
-            this.map = map;
+        private Operation(String path, Object value) {
+            this.path = path;
+            this.value = value;
         }
     }
 
@@ -145,6 +164,29 @@ public class Template {
         return res;
     }
 
+    /**
+     * Flattens the nested replacements into a list of (full key path, value) operations, so that applying the template
+     * doesn't need to walk the replacements again.
+     */
+    @SuppressWarnings("unchecked")
+    private static Operation[] compile(Map<String, Object> replacements) {
+        List<Operation> operations = Lists.newArrayList();
+        Deque<Entry<String, Map<String, Object>>> queue = new ArrayDeque<Entry<String, Map<String, Object>>>();
+        queue.add(Maps.immutableEntry("", replacements));
+        while (!queue.isEmpty()) {
+            Entry<String, Map<String, Object>> node = queue.poll();
+            for (Entry<String, Object> entry : node.getValue().entrySet()) {
+                String path = node.getKey().isEmpty() ? entry.getKey() : node.getKey() + '.' + entry.getKey();
+                if (entry.getValue() instanceof Map<?, ?>) {
+                    queue.add(Maps.immutableEntry(path, (Map<String, Object>) entry.getValue()));
+                } else if (!path.equals("uuid")) {
+                    operations.add(new Operation(path, entry.getValue()));
+                }
+            }
+        }
+        return operations.toArray(new Operation[operations.size()]);
+    }
+
     private static File getDirectory() {
         return new File(CitizensAPI.getDataFolder(), "templates");
     }
@@ -0,0 +1,109 @@
+package net.citizensnpcs.npc;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+
+/**
+ * Throttles how often an {@link NPC} runs its update logic based on the distance to the nearest player. NPCs are
+ * sorted into {@link Tier}s which are re-evaluated periodically, with a hysteresis margin applied when moving to a
+ * less frequent tier to avoid flip-flopping at tier boundaries.
+ */
+public class TickLevelOfDetail {
+    private int sinceLastUpdate;
+    private int sinceTierCheck;
+    private Tier tier = Tier.FULL;
+
+    public TickLevelOfDetail(int phase) {
+        // spread tier checks across ticks so that NPCs created together don't all query on the same tick
+        this.sinceTierCheck = Math.abs(phase) % Math.max(1, Setting.TICK_LOD_RECHECK_TICKS.asInt());
+    }
+
+    private Tier computeTier(NPC npc) {
+        if (npc.getNavigator().isNavigating())
+            return Tier.FULL;
+        Location loc = npc.getStoredLocation();
+        double hysteresis = Setting.TICK_LOD_HYSTERESIS.asDouble();
+        double maxRange = Setting.TICK_LOD_SUSPEND_RANGE.asDouble() + hysteresis;
+        double nearest = Double.MAX_VALUE;
+        for (Player player : CitizensAPI.getLocationLookup().getNearbyPlayers(loc, maxRange)) {
+            double dist = player.getLocation().distanceSquared(loc);
+            if (dist < nearest) {
+                nearest = dist;
+            }
+        }
+        nearest = nearest == Double.MAX_VALUE ? nearest : Math.sqrt(nearest);
+        Tier next = Tier.forDistance(nearest);
+        if (next.ordinal() > tier.ordinal()) {
+            Tier withMargin = Tier.forDistance(nearest - hysteresis);
+            next = withMargin.ordinal() > tier.ordinal() ? withMargin : tier;
+        }
+        return next;
+    }
+
+    public Tier getTier() {
+        return tier;
+    }
+
+    /**
+     * Resets the NPC to the {@link Tier#FULL} tier, e.g. after respawning.
+     */
+    public void reset() {
+        tier = Tier.FULL;
+        sinceLastUpdate = 0;
+    }
+
+    /**
+     * Should be called once per tick.
+     *
+     * @return the number of ticks elapsed since the last update if the NPC should update this tick, otherwise 0
+     */
+    public int tick(NPC npc) {
+        sinceLastUpdate++;
+        if (!Setting.TICK_LOD_ENABLED.asBoolean()) {
+            tier = Tier.FULL;
+        } else if (++sinceTierCheck >= Setting.TICK_LOD_RECHECK_TICKS.asInt()) {
+            sinceTierCheck = 0;
+            tier = computeTier(npc);
+        }
+        int interval = tier.getInterval();
+        if (interval < 0 || sinceLastUpdate < interval)
+            return 0;
+        int elapsed = sinceLastUpdate;
+        sinceLastUpdate = 0;
+        return elapsed;
+    }
+
+    public enum Tier {
+        FULL,
+        REDUCED,
+        LOW,
+        SUSPENDED;
+
+        public int getInterval() {
+            switch (this) {
+                case FULL:
+                    return 1;
+                case REDUCED:
+                    return Setting.TICK_LOD_REDUCED_INTERVAL.asInt();
+                case LOW:
+                    return Setting.TICK_LOD_LOW_INTERVAL.asInt();
+                default:
+                    return -1;
+            }
+        }
+
+        private static Tier forDistance(double distance) {
+            if (distance < Setting.TICK_LOD_REDUCED_RANGE.asDouble())
+                return FULL;
+            if (distance < Setting.TICK_LOD_LOW_RANGE.asDouble())
+                return REDUCED;
+            if (distance < Setting.TICK_LOD_SUSPEND_RANGE.asDouble())
+                return LOW;
+            return SUSPENDED;
+        }
+    }
+}
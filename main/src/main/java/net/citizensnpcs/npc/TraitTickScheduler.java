@@ -0,0 +1,165 @@
+package net.citizensnpcs.npc;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.api.trait.Trait;
+import net.citizensnpcs.trait.RunInterval;
+import net.citizensnpcs.util.NPCProfiler;
+
+/**
+ * Runs an NPC's runnables using a hashed timing wheel. Traits and other runnables that run every tick are kept in a flat
+ * list in their original order, while traits annotated with {@link RunInterval} are placed into wheel slots and only
+ * invoked once they are due. Traits that don't override <code>run()</code> are never invoked.
+ *
+ * Interval traits are given a phase offset based on the NPC id so that traits on different NPCs don't all fire on the
+ * same tick.
+ */
+public class TraitTickScheduler {
+    private int cursor;
+    private final List<Entry> due = Lists.newArrayList();
+    private final List<Runnable> everyTick = Lists.newArrayList();
+    private final int phase;
+    private boolean rebuild = true;
+    private int scheduled;
+    private final List<List<Entry>> wheel = Lists.newArrayListWithCapacity(WHEEL_SIZE);
+
+    public TraitTickScheduler(int phase) {
+        this.phase = phase;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(Lists.newArrayListWithCapacity(2));
+        }
+    }
+
+    /**
+     * Marks the set of traits as changed. The wheel will be rebuilt on the next call to {@link #tick(List, int)}.
+     */
+    public void markDirty() {
+        rebuild = true;
+    }
+
+    private void rebuild(List<Runnable> runnables) {
+        everyTick.clear();
+        for (List<Entry> slot : wheel) {
+            slot.clear();
+        }
+        for (Runnable runnable : runnables) {
+            // only traits can declare an interval, other runnables keep running every tick
+            if (!(runnable instanceof Trait)) {
+                everyTick.add(runnable);
+                continue;
+            }
+            Trait trait = (Trait) runnable;
+            int interval = getInterval(trait.getClass());
+            if (interval == 1) {
+                everyTick.add(trait);
+            } else if (interval > 1) {
+                int offset = Math.floorMod(phase * 31 + trait.getClass().getName().hashCode(), interval);
+                schedule(new Entry(trait, interval), offset + 1);
+            }
+        }
+        scheduled = runnables.size();
+        rebuild = false;
+    }
+
+    private void schedule(Entry entry, int delay) {
+        entry.rounds = (delay - 1) / WHEEL_SIZE;
+        wheel.get((cursor + delay) & (WHEEL_SIZE - 1)).add(entry);
+    }
+
+    /**
+     * Advances the wheel and runs every due runnable once.
+     *
+     * @param runnables
+     *            The current runnables of the NPC, including its traits, in the order they were added
+     * @param elapsedTicks
+     *            The number of ticks since the last call
+     */
+    public void tick(List<Runnable> runnables, int elapsedTicks) {
+        if (rebuild || elapsedTicks > WHEEL_SIZE || runnables.size() != scheduled) {
+            rebuild(runnables);
+        }
+        for (int i = 0; i < everyTick.size(); i++) {
+            Runnable runnable = everyTick.get(i);
+            NPCProfiler.push();
+            try {
+                runnable.run();
+            } finally {
+                NPCProfiler.popTrait(runnable.getClass());
+            }
+        }
+        int steps = Math.min(elapsedTicks, WHEEL_SIZE);
+        for (int step = 0; step < steps; step++) {
+            cursor = (cursor + 1) & (WHEEL_SIZE - 1);
+            List<Entry> slot = wheel.get(cursor);
+            for (int i = 0; i < slot.size(); i++) {
+                Entry entry = slot.get(i);
+                if (entry.rounds > 0) {
+                    entry.rounds--;
+                    continue;
+                }
+                due.add(entry);
+                slot.remove(i--);
+            }
+        }
+        if (due.isEmpty())
+            return;
+        try {
+            for (int i = 0; i < due.size(); i++) {
+                Trait trait = due.get(i).trait;
+                NPCProfiler.push();
+                try {
+                    trait.run();
+                } finally {
+                    NPCProfiler.popTrait(trait.getClass());
+                }
+            }
+        } finally {
+            for (int i = 0; i < due.size(); i++) {
+                Entry entry = due.get(i);
+                schedule(entry, entry.interval);
+            }
+            due.clear();
+        }
+    }
+
+    private static class Entry {
+        private final int interval;
+        private int rounds;
+        private final Trait trait;
+
+        private Entry(Trait trait, int interval) {
+            this.trait = trait;
+            this.interval = interval;
+        }
+    }
+
+    /**
+     * @return the run interval in ticks for the given trait class, or 0 if the trait does not implement
+     *         <code>run()</code>
+     */
+    private static int getInterval(Class<? extends Trait> clazz) {
+        Integer cached = INTERVALS.get(clazz);
+        if (cached != null)
+            return cached;
+        int interval = 1;
+        try {
+            if (clazz.getMethod("run").getDeclaringClass() == Trait.class) {
+                interval = 0;
+            }
+        } catch (NoSuchMethodException e) {
+        }
+        RunInterval annotation = clazz.getAnnotation(RunInterval.class);
+        if (interval != 0 && annotation != null) {
+            interval = Math.max(1, annotation.value());
+        }
+        INTERVALS.put(clazz, interval);
+        return interval;
+    }
+
+    private static final Map<Class<? extends Trait>, Integer> INTERVALS = Maps.newHashMap();
+    private static final int WHEEL_SIZE = 64;
+}
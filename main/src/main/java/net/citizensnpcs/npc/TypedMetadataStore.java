@@ -0,0 +1,231 @@
+package net.citizensnpcs.npc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.api.npc.MetadataStore;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.DataKey;
+
+/**
+ * A {@link MetadataStore} which caches {@link NPC.Metadata} values in a flat array indexed by enum ordinal, so that
+ * per-tick lookups of well-known keys don't need to hash. All reads and writes are passed through to the backing
+ * store, which remains responsible for persistence.
+ *
+ * Each well-known key has a dirty bit which is set whenever its value changes and can be consumed by code that only
+ * needs to act on changes, and listeners can be registered to be notified of changes immediately. Writing the value a
+ * key already has is not a change.
+ */
+public class TypedMetadataStore implements MetadataStore {
+    private final MetadataStore delegate;
+    private final boolean[] dirty = new boolean[KEYS.length];
+    private final List<MetadataChangeListener> listeners = Lists.newArrayListWithCapacity(1);
+    private final Object[] values = new Object[KEYS.length];
+
+    public TypedMetadataStore(MetadataStore delegate) {
+        this.delegate = delegate;
+        invalidateAll();
+    }
+
+    public void addListener(MetadataChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Must be called after the key has been written to the backing store.
+     *
+     * @param old
+     *            The value before the write, as returned by {@link #lookup(NPC.Metadata)}
+     */
+    private void changed(NPC.Metadata key, Object old) {
+        int ordinal = key.ordinal();
+        values[ordinal] = UNKNOWN;
+        Object value = lookup(key);
+        if (Objects.equals(value, old))
+            return;
+        dirty[ordinal] = true;
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onMetadataChanged(key, value == ABSENT ? null : value);
+        }
+    }
+
+    /**
+     * Clears the dirty bit of every key.
+     *
+     * @return whether any key had changed since the last call
+     */
+    public boolean consumeDirty() {
+        boolean wasDirty = false;
+        for (int i = 0; i < dirty.length; i++) {
+            wasDirty |= dirty[i];
+            dirty[i] = false;
+        }
+        return wasDirty;
+    }
+
+    /**
+     * Clears the dirty bit for the given key.
+     *
+     * @return whether the key had changed since the last call
+     */
+    public boolean consumeDirty(NPC.Metadata key) {
+        boolean wasDirty = dirty[key.ordinal()];
+        dirty[key.ordinal()] = false;
+        return wasDirty;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T get(NPC.Metadata key) {
+        Object value = lookup(key);
+        return value == ABSENT ? null : (T) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> T get(NPC.Metadata key, T def) {
+        Object value = lookup(key);
+        return value == ABSENT ? def : (T) value;
+    }
+
+    @Override
+    public <T> T get(String key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public <T> T get(String key, T def) {
+        return delegate.get(key, def);
+    }
+
+    @Override
+    public boolean has(NPC.Metadata key) {
+        return lookup(key) != ABSENT;
+    }
+
+    @Override
+    public boolean has(String key) {
+        return delegate.has(key);
+    }
+
+    /**
+     * Drops all cached values. Must be called if the backing store is modified directly, for example when loading.
+     * Doesn't mark any key as dirty.
+     */
+    public void invalidateAll() {
+        Arrays.fill(values, UNKNOWN);
+    }
+
+    public boolean isDirty(NPC.Metadata key) {
+        return dirty[key.ordinal()];
+    }
+
+    @Override
+    public void loadFrom(DataKey key) {
+        delegate.loadFrom(key);
+        invalidateAll();
+    }
+
+    private Object lookup(NPC.Metadata key) {
+        int ordinal = key.ordinal();
+        Object value = values[ordinal];
+        if (value == UNKNOWN) {
+            values[ordinal] = value = delegate.has(key) ? delegate.get(key) : ABSENT;
+            if (value == null) {
+                values[ordinal] = value = ABSENT;
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public void remove(NPC.Metadata key) {
+        Object old = lookup(key);
+        delegate.remove(key);
+        changed(key, old);
+    }
+
+    @Override
+    public void remove(String key) {
+        NPC.Metadata metadata = BY_KEY.get(key);
+        Object old = metadata == null ? null : lookup(metadata);
+        delegate.remove(key);
+        if (metadata != null) {
+            changed(metadata, old);
+        }
+    }
+
+    public void removeListener(MetadataChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void saveTo(DataKey key) {
+        delegate.saveTo(key);
+    }
+
+    @Override
+    public void set(NPC.Metadata key, Object data) {
+        Object old = lookup(key);
+        delegate.set(key, data);
+        changed(key, old);
+    }
+
+    @Override
+    public void set(String key, Object data) {
+        NPC.Metadata metadata = BY_KEY.get(key);
+        Object old = metadata == null ? null : lookup(metadata);
+        delegate.set(key, data);
+        if (metadata != null) {
+            changed(metadata, old);
+        }
+    }
+
+    @Override
+    public void setPersistent(NPC.Metadata key, Object data) {
+        Object old = lookup(key);
+        delegate.setPersistent(key, data);
+        changed(key, old);
+    }
+
+    @Override
+    public void setPersistent(String key, Object data) {
+        NPC.Metadata metadata = BY_KEY.get(key);
+        Object old = metadata == null ? null : lookup(metadata);
+        delegate.setPersistent(key, data);
+        if (metadata != null) {
+            changed(metadata, old);
+        }
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    public interface MetadataChangeListener {
+        /**
+         * Called after a well-known metadata key has been set or removed.
+         *
+         * @param value
+         *            The new value, or null if the key was removed
+         */
+        void onMetadataChanged(NPC.Metadata key, Object value);
+    }
+
+    private static final Object ABSENT = new Object();
+    private static final Map<String, NPC.Metadata> BY_KEY = Maps.newHashMap();
+    private static final NPC.Metadata[] KEYS = NPC.Metadata.values();
+    private static final Object UNKNOWN = new Object();
+
+    static {
+        for (NPC.Metadata key : KEYS) {
+            BY_KEY.put(key.getKey(), key);
+        }
+    }
+}
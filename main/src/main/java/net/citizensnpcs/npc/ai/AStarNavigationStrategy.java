@@ -25,15 +25,18 @@ import net.citizensnpcs.api.astar.pathfinder.PathPoint;
 import net.citizensnpcs.api.astar.pathfinder.VectorGoal;
 import net.citizensnpcs.api.astar.pathfinder.VectorNode;
 import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.npc.ai.PathPlanningScheduler.Ticket;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.Util;
 
 public class AStarNavigationStrategy extends AbstractPathStrategy {
+    private PathCache.Key cacheKey;
     private final Location destination;
     private final NPC npc;
     private final NavigatorParameters params;
     private Path plan;
     private AStarPlanner planner;
+    private Ticket ticket;
     private Vector vector;
 
     public AStarNavigationStrategy(NPC npc, Iterable<Vector> path, NavigatorParameters params) {
@@ -52,6 +55,13 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
         this.npc = npc;
     }
 
+    /**
+     * Stores the path in the {@link PathCache} under the given key once it has been planned.
+     */
+    void cacheAs(PathCache.Key key) {
+        this.cacheKey = key;
+    }
+
     @Override
     public Location getCurrentDestination() {
         return vector != null ? vector.toLocation(npc.getEntity().getWorld()) : destination.clone();
@@ -72,6 +82,14 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
         if (plan != null && params.debug()) {
             plan.debugEnd();
         }
+        if (planner != null) {
+            planner.cancel();
+            planner = null;
+        }
+        if (ticket != null) {
+            ticket.cancel();
+            ticket = null;
+        }
         plan = null;
     }
 
@@ -79,16 +97,31 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
     public boolean update() {
         if (plan == null) {
             if (planner == null) {
-                planner = new AStarPlanner(params, npc.getEntity().getLocation(NPC_LOCATION), destination);
+                planner = new AStarPlanner(params, npc.getEntity().getLocation(NPC_LOCATION), destination,
+                        Setting.ASTAR_ASYNC.asBoolean());
             }
-            CancelReason reason = planner.tick(Setting.ASTAR_ITERATIONS_PER_TICK.asInt(),
-                    Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
-            if (reason != null) {
-                setCancelReason(reason);
+            if (planner.async == null && ticket == null) {
+                // asynchronous searches don't run on the main thread so don't need a share of the budget, unless they
+                // fell back to the main thread
+                ticket = PathPlanningScheduler.submit(npc);
+            }
+            if (ticket == null || ticket.isReady()) {
+                CancelReason reason = planner.tick(ticket == null ? 0 : ticket.takeIterations(),
+                        Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+                if (reason != null) {
+                    setCancelReason(reason);
+                }
             }
             plan = planner.plan;
             if (plan != null) {
                 planner = null;
+                if (cacheKey != null) {
+                    PathCache.put(cacheKey, plan.getPath());
+                }
+            }
+            if ((plan != null || getCancelReason() != null) && ticket != null) {
+                ticket.cancel();
+                ticket = null;
             }
         }
         if (getCancelReason() != null || plan == null || plan.isComplete()) {
@@ -142,6 +175,7 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
     }
 
     public static class AStarPlanner {
+        AsyncPathPlanner async;
         Location from;
         int iterations;
         NavigatorParameters params;
@@ -150,6 +184,15 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
         Location to;
 
         public AStarPlanner(NavigatorParameters params, Location from, Location to) {
+            this(params, from, to, false);
+        }
+
+        /**
+         * @param async
+         *            Whether to search on a pathfinding worker thread against a snapshot of the surrounding chunks
+         *            instead of ticking the search on the main thread, if the examiners allow it
+         */
+        public AStarPlanner(NavigatorParameters params, Location from, Location to, boolean async) {
             this.params = params;
             this.from = from;
             this.to = to;
@@ -158,10 +201,17 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
                 public float getCost(BlockSource source, PathPoint point) {
                     Vector pos = point.getVector();
                     Material above = source.getMaterialAt(pos.setY(pos.getY() + 1));
-                    return params.avoidWater() && (MinecraftBlockExaminer.isLiquid(above)
-                            || MinecraftBlockExaminer.isLiquidOrInLiquid(pos.toLocation(source.getWorld()).getBlock()))
-                                    ? 1F
-                                    : 0F;
+                    return params.avoidWater()
+                            && (MinecraftBlockExaminer.isLiquid(above) || isLiquidOrInLiquid(source, pos)) ? 1F : 0F;
+                }
+
+                private boolean isLiquidOrInLiquid(BlockSource source, Vector pos) {
+                    // answered from the snapshot so that avoiding water doesn't force planning onto the main thread
+                    if (source instanceof SnapshotBlockSource)
+                        return ((SnapshotBlockSource) source).isLiquidOrInLiquid(pos.getBlockX(), pos.getBlockY(),
+                                pos.getBlockZ());
+                    return MinecraftBlockExaminer
+                            .isLiquidOrInLiquid(source.getBlockAt(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ()));
                 }
 
                 @Override
@@ -169,14 +219,49 @@ public class AStarNavigationStrategy extends AbstractPathStrategy {
                     return PassableState.IGNORE;
                 }
             });
+            if (async && SnapshotBlockSource.canPlan(params.examiners())) {
+                this.async = new AsyncPathPlanner(ASTAR, createState(true), Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+            } else {
+                state = createState(false);
+            }
+        }
+
+        /**
+         * Stops an asynchronous search. Has no effect on a synchronous planner.
+         */
+        public void cancel() {
+            if (async != null) {
+                async.cancel();
+            }
+        }
+
+        private AStarMachine<VectorNode, Path>.AStarState createState(boolean snapshot) {
             VectorGoal goal = new VectorGoal(to, (float) params.pathDistanceMargin());
-            state = ASTAR.getStateFor(goal,
-                    new VectorNode(goal, from, new NMSChunkBlockSource(from, params.range()), params.examiners()));
+            BlockSource source = snapshot ? new SnapshotBlockSource(from, to, params.range())
+                    : new NMSChunkBlockSource(from, params.range());
+            return ASTAR.getStateFor(goal, new VectorNode(goal, from, source, params.examiners()));
         }
 
         public CancelReason tick(int iterationsPerTick, int maxIterations) {
             if (this.plan != null)
                 return null;
+            if (async != null) {
+                if (!async.isDone())
+                    return null;
+                if (async.needsMainThread()) {
+                    SnapshotBlockSource.markLive(async.getLiveBlockAccess(), params.examiners());
+                    async = null;
+                    state = createState(false);
+                    return null;
+                }
+                if (async.getPlan() == null)
+                    return CancelReason.STUCK;
+                this.plan = async.getPlan();
+                if (params.debug()) {
+                    plan.debug();
+                }
+                return null;
+            }
             Path plan = ASTAR.run(state, iterationsPerTick);
             if (plan == null) {
                 if (state.isEmpty()) {
@@ -0,0 +1,112 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.astar.AStarMachine;
+import net.citizensnpcs.api.astar.pathfinder.Path;
+import net.citizensnpcs.api.astar.pathfinder.VectorNode;
+import net.citizensnpcs.npc.ai.SnapshotBlockSource.LiveBlockAccessException;
+
+/**
+ * Runs an A* search on a pathfinding worker thread instead of the main thread. The search state should be built on a
+ * {@link SnapshotBlockSource} so that it doesn't read the live world.
+ *
+ * Navigation strategies poll {@link #isDone()} each tick and pick up the result on the main thread. {@link #cancel()}
+ * stops the search at the next step, for example when the NPC's target changes. If the search read live blocks, it is
+ * abandoned and {@link #needsMainThread()} tells the strategy to plan on the main thread instead.
+ */
+public class AsyncPathPlanner {
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private volatile LiveBlockAccessException liveBlockAccess;
+    private volatile Path plan;
+
+    public AsyncPathPlanner(AStarMachine<VectorNode, Path> machine, AStarMachine<VectorNode, Path>.AStarState state,
+            int maxIterations) {
+        getExecutor().execute(() -> {
+            try {
+                run(machine, state, maxIterations);
+            } catch (LiveBlockAccessException e) {
+                liveBlockAccess = e;
+            } catch (Throwable t) {
+                t.printStackTrace();
+            } finally {
+                done = true;
+            }
+        });
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return the exception thrown when the search read live blocks, or null
+     */
+    public LiveBlockAccessException getLiveBlockAccess() {
+        return liveBlockAccess;
+    }
+
+    /**
+     * @return the planned path, or null if the search is still running or failed
+     */
+    public Path getPlan() {
+        return plan;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return whether the search was abandoned because an examiner read live blocks, see {@link SnapshotBlockSource}
+     */
+    public boolean needsMainThread() {
+        return liveBlockAccess != null;
+    }
+
+    private void run(AStarMachine<VectorNode, Path> machine, AStarMachine<VectorNode, Path>.AStarState state,
+            int maxIterations) {
+        int iterations = 0;
+        while (!cancelled && !Thread.currentThread().isInterrupted()) {
+            Path path = machine.run(state, ITERATIONS_PER_STEP);
+            if (path != null) {
+                plan = path;
+                return;
+            }
+            if (state.isEmpty())
+                return;
+            iterations += ITERATIONS_PER_STEP;
+            if (maxIterations > 0 && iterations > maxIterations)
+                return;
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, Setting.ASTAR_ASYNC_THREADS.asInt()), runnable -> {
+                Thread thread = new Thread(runnable, "Citizens Pathfinder " + THREAD_ID.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the worker threads, abandoning any running searches. Threads are started again by the next search.
+     */
+    public static synchronized void shutdown() {
+        if (executor == null)
+            return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    private static ExecutorService executor;
+    private static final int ITERATIONS_PER_STEP = 250;
+    private static final AtomicInteger THREAD_ID = new AtomicInteger();
+}
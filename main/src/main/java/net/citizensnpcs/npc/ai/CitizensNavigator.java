@@ -189,7 +189,9 @@ public class CitizensNavigator implements Navigator, Runnable {
             return;
         Location npcLoc = npc.getStoredLocation();
         Location targetLoc = getTargetAsLocation();
-        if (!npcLoc.getWorld().equals(targetLoc.getWorld()) || localParams.range() < npcLoc.distance(targetLoc)) {
+        // hierarchical routes are walked in legs that each stay within range
+        if (!npcLoc.getWorld().equals(targetLoc.getWorld()) || (localParams.range() < npcLoc.distance(targetLoc)
+                && !(executing instanceof HierarchicalNavigationStrategy))) {
             stopNavigating(CancelReason.STUCK);
             return;
         }
@@ -358,13 +360,28 @@ public class CitizensNavigator implements Navigator, Runnable {
         setTarget(new Function<NavigatorParameters, PathStrategy>() {
             @Override
             public PathStrategy apply(NavigatorParameters params) {
-                if (npc.isFlyable()) {
+                if (npc.isFlyable())
                     return new FlyingAStarNavigationStrategy(npc, target, params);
-                } else if (params.useNewPathfinder() || !(npc.getEntity() instanceof LivingEntity)
-                        || npc.getEntity() instanceof ArmorStand) {
-                    return new AStarNavigationStrategy(npc, target, params);
+                Location npcLoc = npc.getStoredLocation();
+                if (Setting.HIERARCHICAL_PATHFINDING_ENABLED.asBoolean() && npcLoc.getWorld().equals(target.getWorld())
+                        && npcLoc.distance(target) > params.range())
+                    return new HierarchicalNavigationStrategy(npc, target, params);
+                boolean newPathfinder = params.useNewPathfinder() || !(npc.getEntity() instanceof LivingEntity)
+                        || npc.getEntity() instanceof ArmorStand;
+                PathCache.Key key = PathCache.key(npc, target, params, newPathfinder);
+                List<Vector> cached = PathCache.get(key);
+                if (newPathfinder) {
+                    if (cached != null)
+                        return new AStarNavigationStrategy(npc, cached, params);
+                    AStarNavigationStrategy strategy = new AStarNavigationStrategy(npc, target, params);
+                    strategy.cacheAs(key);
+                    return strategy;
                 } else {
-                    return new MCNavigationStrategy(npc, target, params);
+                    if (cached != null)
+                        return new MCNavigationStrategy(npc, cached, params);
+                    MCNavigationStrategy strategy = new MCNavigationStrategy(npc, target, params);
+                    strategy.cacheAs(key);
+                    return strategy;
                 }
             }
         });
@@ -450,6 +467,11 @@ public class CitizensNavigator implements Navigator, Runnable {
         updatePathfindingRange();
         if (executing != null) {
             Bukkit.getPluginManager().callEvent(new NavigationReplaceEvent(this));
+            // cancel any path still being planned off the main thread
+            if (executing instanceof AStarNavigationStrategy || executing instanceof FlyingAStarNavigationStrategy
+                    || executing instanceof HierarchicalNavigationStrategy) {
+                executing.stop();
+            }
         }
         executing = newStrategy;
         stationaryTicks = 0;
@@ -20,17 +20,20 @@ import net.citizensnpcs.api.ai.TargetType;
 import net.citizensnpcs.api.ai.event.CancelReason;
 import net.citizensnpcs.api.astar.AStarMachine;
 import net.citizensnpcs.api.astar.pathfinder.BlockExaminer;
+import net.citizensnpcs.api.astar.pathfinder.BlockSource;
 import net.citizensnpcs.api.astar.pathfinder.FlyingBlockExaminer;
 import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
 import net.citizensnpcs.api.astar.pathfinder.Path;
 import net.citizensnpcs.api.astar.pathfinder.VectorGoal;
 import net.citizensnpcs.api.astar.pathfinder.VectorNode;
 import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.npc.ai.PathPlanningScheduler.Ticket;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.PlayerAnimation;
 import net.citizensnpcs.util.Util;
 
 public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
+    private AsyncPathPlanner async;
     private int iterations;
     private final NPC npc;
     private final NavigatorParameters parameters;
@@ -38,6 +41,7 @@ public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
     private boolean planned;
     private AStarMachine<VectorNode, Path>.AStarState state;
     private final Location target;
+    private Ticket ticket;
     private Vector vector;
 
     public FlyingAStarNavigationStrategy(NPC npc, Iterable<Vector> path, NavigatorParameters params) {
@@ -82,10 +86,20 @@ public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
         if (!found) {
             parameters.examiner(new FlyingBlockExaminer());
         }
+        initialiseState(Setting.ASTAR_ASYNC.asBoolean() && SnapshotBlockSource.canPlan(parameters.examiners()));
+    }
+
+    private void initialiseState(boolean async) {
         Location location = npc.getEntity().getLocation();
         VectorGoal goal = new VectorGoal(target, (float) parameters.pathDistanceMargin());
-        state = ASTAR.getStateFor(goal, new VectorNode(goal, location,
-                new NMSChunkBlockSource(location, parameters.range()), parameters.examiners()));
+        BlockSource source = async ? new SnapshotBlockSource(location, target, parameters.range())
+                : new NMSChunkBlockSource(location, parameters.range());
+        state = ASTAR.getStateFor(goal, new VectorNode(goal, location, source, parameters.examiners()));
+        if (async) {
+            this.async = new AsyncPathPlanner(ASTAR, state, Setting.MAXIMUM_ASTAR_ITERATIONS.asInt());
+        } else {
+            ticket = PathPlanningScheduler.submit(npc);
+        }
     }
 
     public void setPlan(Path path) {
@@ -98,6 +112,10 @@ public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
                 plan.debug();
             }
         }
+        if (ticket != null) {
+            ticket.cancel();
+            ticket = null;
+        }
         planned = true;
     }
 
@@ -106,6 +124,14 @@ public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
         if (plan != null && parameters.debug()) {
             plan.debugEnd();
         }
+        if (async != null) {
+            async.cancel();
+            async = null;
+        }
+        if (ticket != null) {
+            ticket.cancel();
+            ticket = null;
+        }
         plan = null;
     }
 
@@ -115,21 +141,36 @@ public class FlyingAStarNavigationStrategy extends AbstractPathStrategy {
             if (state == null) {
                 initialisePathfinder();
             }
-            int maxIterations = Setting.MAXIMUM_ASTAR_ITERATIONS.asInt();
-            int iterationsPerTick = Setting.ASTAR_ITERATIONS_PER_TICK.asInt();
-            Path plan = ASTAR.run(state, iterationsPerTick);
-            if (plan == null) {
-                if (state.isEmpty()) {
-                    setCancelReason(CancelReason.STUCK);
+            if (async != null) {
+                if (!async.isDone())
+                    return false;
+                if (async.needsMainThread()) {
+                    SnapshotBlockSource.markLive(async.getLiveBlockAccess(), parameters.examiners());
+                    async = null;
+                    initialiseState(false);
+                    return false;
                 }
-                if (iterationsPerTick > 0 && maxIterations > 0) {
-                    iterations += iterationsPerTick;
-                    if (iterations > maxIterations) {
+                setPlan(async.getPlan());
+                async = null;
+            } else {
+                if (!ticket.isReady())
+                    return false;
+                int maxIterations = Setting.MAXIMUM_ASTAR_ITERATIONS.asInt();
+                int iterationsPerTick = ticket.takeIterations();
+                Path plan = ASTAR.run(state, iterationsPerTick);
+                if (plan == null) {
+                    if (state.isEmpty()) {
                         setCancelReason(CancelReason.STUCK);
                     }
+                    if (iterationsPerTick > 0 && maxIterations > 0) {
+                        iterations += iterationsPerTick;
+                        if (iterations > maxIterations) {
+                            setCancelReason(CancelReason.STUCK);
+                        }
+                    }
+                } else {
+                    setPlan(plan);
                 }
-            } else {
-                setPlan(plan);
             }
         }
         if (getCancelReason() != null || plan == null || plan.isComplete()) {
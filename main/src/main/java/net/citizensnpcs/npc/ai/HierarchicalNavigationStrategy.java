@@ -0,0 +1,332 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.ArmorStand;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.Lists;
+
+import gnu.trove.map.hash.TLongDoubleHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import net.citizensnpcs.api.ai.AbstractPathStrategy;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.ai.PathStrategy;
+import net.citizensnpcs.api.ai.TargetType;
+import net.citizensnpcs.api.ai.event.CancelReason;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.npc.ai.SectionGraph.Section;
+
+/**
+ * Navigates to targets beyond the pathfinding range. A coarse route is first planned over the entrances between chunk
+ * sections (see {@link SectionGraph}), and then walked leg by leg, each leg being planned by the usual A* or Minecraft
+ * pathfinder towards the furthest route point within range. If a leg can't be walked, the route is planned again.
+ */
+public class HierarchicalNavigationStrategy extends AbstractPathStrategy {
+    private PathStrategy leg;
+    private int legEnd;
+    private final NPC npc;
+    private final NavigatorParameters params;
+    private HierarchicalPlanner planner;
+    private int replans;
+    private List<Vector> route;
+    private int routeIndex;
+    private final Location target;
+
+    public HierarchicalNavigationStrategy(NPC npc, Location target, NavigatorParameters params) {
+        super(TargetType.LOCATION);
+        this.npc = npc;
+        this.target = target;
+        this.params = params;
+    }
+
+    private PathStrategy createLeg(Location dest) {
+        boolean newPathfinder = params.useNewPathfinder() || !(npc.getEntity() instanceof LivingEntity)
+                || npc.getEntity() instanceof ArmorStand;
+        // legs start and end at section entrances, so NPCs travelling the same way share them
+        PathCache.Key key = PathCache.key(npc, dest, params, newPathfinder);
+        List<Vector> cached = PathCache.get(key);
+        if (newPathfinder) {
+            if (cached != null)
+                return new AStarNavigationStrategy(npc, cached, params);
+            AStarNavigationStrategy strategy = new AStarNavigationStrategy(npc, dest, params);
+            strategy.cacheAs(key);
+            return strategy;
+        } else {
+            if (cached != null)
+                return new MCNavigationStrategy(npc, cached, params);
+            MCNavigationStrategy strategy = new MCNavigationStrategy(npc, dest, params);
+            strategy.cacheAs(key);
+            return strategy;
+        }
+    }
+
+    @Override
+    public Location getCurrentDestination() {
+        return leg != null ? leg.getCurrentDestination() : target.clone();
+    }
+
+    @Override
+    public Iterable<Vector> getPath() {
+        return leg != null ? leg.getPath() : route;
+    }
+
+    @Override
+    public Location getTargetAsLocation() {
+        return target;
+    }
+
+    private PathStrategy nextLeg() {
+        Vector current = npc.getStoredLocation().toVector();
+        double maxDistance = params.range() * LEG_RANGE;
+        legEnd = routeIndex;
+        for (int i = routeIndex + 1; i < route.size(); i++) {
+            if (route.get(i).distanceSquared(current) > maxDistance * maxDistance)
+                break;
+            legEnd = i;
+        }
+        if (legEnd == route.size() - 1)
+            return createLeg(target);
+        Vector end = route.get(legEnd);
+        return createLeg(new Location(target.getWorld(), end.getX() + 0.5, end.getY(), end.getZ() + 0.5));
+    }
+
+    @Override
+    public void stop() {
+        if (leg != null) {
+            leg.stop();
+            leg = null;
+        }
+        planner = null;
+    }
+
+    @Override
+    public String toString() {
+        return "HierarchicalNavigationStrategy [target=" + target + "]";
+    }
+
+    @Override
+    public boolean update() {
+        if (getCancelReason() != null)
+            return true;
+        if (route == null) {
+            if (planner == null) {
+                planner = new HierarchicalPlanner(npc.getStoredLocation(), target);
+            }
+            CancelReason reason = planner.tick();
+            if (reason != null) {
+                setCancelReason(reason);
+                return true;
+            }
+            if (planner.route == null)
+                return false;
+            route = planner.route;
+            routeIndex = 0;
+            planner = null;
+        }
+        if (leg == null) {
+            leg = nextLeg();
+        }
+        if (!leg.update())
+            return false;
+        CancelReason reason = leg.getCancelReason();
+        if (reason != null) {
+            leg.stop();
+            leg = null;
+            if (replans++ >= MAX_REPLANS) {
+                setCancelReason(reason);
+                return true;
+            }
+            route = null;
+            return false;
+        }
+        // the Minecraft pathfinder only restores the NPC's pathfinding maluses once stopped
+        leg.stop();
+        leg = null;
+        if (legEnd == route.size() - 1)
+            return true;
+        routeIndex = legEnd + 1;
+        return false;
+    }
+
+    /**
+     * Plans a route over the section graph with A*, spreading section builds and node expansions over several ticks.
+     */
+    public static class HierarchicalPlanner {
+        private final TLongDoubleHashMap best = new TLongDoubleHashMap();
+        private double bestGoal = Double.MAX_VALUE;
+        private final TLongHashSet closed = new TLongHashSet();
+        private int expanded;
+        private int[] goalDistances;
+        private long goalPos;
+        private final long goalSection;
+        private final int goalX, goalY, goalZ;
+        private final PriorityQueue<Node> open = new PriorityQueue<Node>();
+        List<Vector> route;
+        private final long startPos;
+        private final TLongHashSet unavailable = new TLongHashSet();
+        private final World world;
+
+        public HierarchicalPlanner(Location from, Location to) {
+            this.world = from.getWorld();
+            this.goalX = to.getBlockX();
+            this.goalY = to.getBlockY();
+            this.goalZ = to.getBlockZ();
+            this.goalSection = SectionGraph.pack(goalX >> 4, goalY >> 4, goalZ >> 4);
+            this.startPos = findWalkable(world, from.getBlockX(), from.getBlockY(), from.getBlockZ());
+            open.add(new Node(startPos, null, 0, heuristic(startPos), false));
+        }
+
+        private void expand(Node node, Section section) {
+            if (section.key == goalSection && goalDistances == null) {
+                goalPos = findWalkable(world, goalX, goalY, goalZ);
+                goalDistances = section.distancesFrom(world, goalPos);
+            }
+            int from = section.indexOf(node.pos);
+            if (node.parent == null) {
+                int[] startDistances = section.distancesFrom(world, node.pos);
+                for (long pos : section.nodes) {
+                    int distance = startDistances[Section.localIndex(pos)];
+                    if (distance > 0) {
+                        push(node, pos, distance, false);
+                    }
+                }
+            } else if (from >= 0) {
+                for (int i = 0; i < section.nodes.length; i++) {
+                    if (i != from && section.distances[from][i] >= 0) {
+                        push(node, section.nodes[i], section.distances[from][i], false);
+                    }
+                }
+            }
+            if (from >= 0) {
+                for (int i = 0; i < section.partners.length; i++) {
+                    if (section.partnerNodes[i] == from) {
+                        push(node, section.partners[i], 1, false);
+                    }
+                }
+            }
+            if (section.key == goalSection) {
+                int distance = goalDistances[Section.localIndex(node.pos)];
+                if (distance >= 0) {
+                    push(node, goalPos, distance, true);
+                }
+            }
+        }
+
+        private double heuristic(long pos) {
+            // each step moves one block horizontally and at most one block vertically
+            int horizontal = Math.abs(SectionGraph.unpackX(pos) - goalX) + Math.abs(SectionGraph.unpackZ(pos) - goalZ);
+            return Math.max(horizontal, Math.abs(SectionGraph.unpackY(pos) - goalY));
+        }
+
+        private void push(Node parent, long pos, double cost, boolean goal) {
+            double g = parent.g + cost;
+            if (goal) {
+                if (g >= bestGoal)
+                    return;
+                bestGoal = g;
+            } else {
+                if (closed.contains(pos) || (best.containsKey(pos) && best.get(pos) <= g))
+                    return;
+                best.put(pos, g);
+            }
+            open.add(new Node(pos, parent, g, goal ? g : g + heuristic(pos), goal));
+        }
+
+        /**
+         * Continues the search.
+         *
+         * @return {@link CancelReason#STUCK} if there is no route, otherwise null. The route is available once
+         *         {@link #route} is set.
+         */
+        public CancelReason tick() {
+            if (route != null)
+                return null;
+            int expansions = 0;
+            while (!open.isEmpty()) {
+                Node node = open.peek();
+                if (node.goal) {
+                    route = node.toRoute();
+                    return null;
+                }
+                if (closed.contains(node.pos)) {
+                    open.poll();
+                    continue;
+                }
+                long key = SectionGraph.sectionKeyOf(node.pos);
+                Section section = unavailable.contains(key) ? null : SectionGraph.getCached(world, key);
+                if (section == null && !unavailable.contains(key)) {
+                    if (!SectionGraph.tryBuild())
+                        return null;
+                    section = SectionGraph.build(world, key);
+                    if (section == null) {
+                        // the chunks around the section aren't loaded, so treat the section as impassable
+                        unavailable.add(key);
+                    }
+                }
+                open.poll();
+                closed.add(node.pos);
+                if (section != null) {
+                    expand(node, section);
+                }
+                if (++expanded > MAX_EXPANSIONS)
+                    return CancelReason.STUCK;
+                if (++expansions >= EXPANSIONS_PER_TICK)
+                    return null;
+            }
+            return CancelReason.STUCK;
+        }
+
+        /**
+         * Finds the walkable position at or next to the block, staying within its section.
+         */
+        private static long findWalkable(World world, int x, int y, int z) {
+            for (int dy : new int[] { 0, 1, -1 }) {
+                if ((y + dy) >> 4 == y >> 4 && SectionGraph.isWalkable(world, x, y + dy, z))
+                    return SectionGraph.pack(x, y + dy, z);
+            }
+            return SectionGraph.pack(x, y, z);
+        }
+    }
+
+    private static class Node implements Comparable<Node> {
+        private final double f;
+        private final double g;
+        private final boolean goal;
+        private final Node parent;
+        private final long pos;
+
+        private Node(long pos, Node parent, double g, double f, boolean goal) {
+            this.pos = pos;
+            this.parent = parent;
+            this.g = g;
+            this.f = f;
+            this.goal = goal;
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            return Double.compare(f, other.f);
+        }
+
+        private List<Vector> toRoute() {
+            List<Vector> route = Lists.newArrayList();
+            for (Node node = this; node.parent != null; node = node.parent) {
+                route.add(new Vector(SectionGraph.unpackX(node.pos), SectionGraph.unpackY(node.pos),
+                        SectionGraph.unpackZ(node.pos)));
+            }
+            Collections.reverse(route);
+            return route;
+        }
+    }
+
+    private static final int EXPANSIONS_PER_TICK = 5000;
+    private static final double LEG_RANGE = 0.75;
+    private static final int MAX_EXPANSIONS = 100000;
+    private static final int MAX_REPLANS = 2;
+}
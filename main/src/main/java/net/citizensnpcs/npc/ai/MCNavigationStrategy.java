@@ -18,6 +18,7 @@ import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.Util;
 
 public class MCNavigationStrategy extends AbstractPathStrategy {
+    private PathCache.Key cacheKey;
     private final Entity entity;
     private final MCNavigator navigator;
     private final NavigatorParameters parameters;
@@ -43,6 +44,13 @@ public class MCNavigationStrategy extends AbstractPathStrategy {
         this.navigator = NMS.getTargetNavigator(entity, target, params);
     }
 
+    /**
+     * Stores the path in the {@link PathCache} under the given key once Minecraft has planned it.
+     */
+    void cacheAs(PathCache.Key key) {
+        this.cacheKey = key;
+    }
+
     @Override
     public Location getCurrentDestination() {
         Location dest = NMS.getDestination(entity);
@@ -82,6 +90,11 @@ public class MCNavigationStrategy extends AbstractPathStrategy {
         if (getCancelReason() != null)
             return true;
         boolean wasFinished = navigator.update();
+        if (cacheKey != null && navigator.getCancelReason() == null) {
+            // the path is planned on the first update
+            PathCache.put(cacheKey, navigator.getPath());
+            cacheKey = null;
+        }
         Location loc = entity.getLocation(HANDLE_LOCATION);
         double dX = target.getX() - loc.getX();
         double dZ = target.getZ() - loc.getZ();
@@ -0,0 +1,30 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import net.citizensnpcs.api.ai.flocking.NPCFlock;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.NPCSpatialIndex;
+
+/**
+ * An {@link NPCFlock} containing every spawned NPC within a radius, looked up using the {@link NPCSpatialIndex} rather
+ * than by scanning nearby entities.
+ */
+public class NearbyNPCFlock implements NPCFlock {
+    private final double radius;
+
+    public NearbyNPCFlock(double radius) {
+        this.radius = radius;
+    }
+
+    @Override
+    public Collection<NPC> getNearby(NPC npc) {
+        if (!npc.isSpawned())
+            return Collections.emptyList();
+        List<NPC> nearby = NPCSpatialIndex.getNearbyNPCs(npc.getEntity().getLocation(), radius);
+        nearby.remove(npc);
+        return nearby;
+    }
+}
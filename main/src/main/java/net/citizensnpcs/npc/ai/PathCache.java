@@ -0,0 +1,200 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.ai.NavigatorParameters;
+import net.citizensnpcs.api.astar.pathfinder.BlockExaminer;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.util.BlockRevisions;
+
+/**
+ * A bounded, least-recently-used cache of planned paths shared between NPCs, so that NPCs which repeatedly walk between
+ * the same blocks (patrolling guards, villagers walking between market stalls) only plan the path once.
+ *
+ * Paths are keyed by world, start block, goal block and a hash of the pathfinder configuration (pathfinder type,
+ * entity type, water avoidance and block examiner types). A path is dropped as soon as a block changes in any chunk
+ * section it passes through (see {@link BlockRevisions}), and paths also expire after
+ * {@link Setting#PATH_CACHE_EXPIRY_SECONDS} to pick up changes made without block events. Only used on the main thread.
+ */
+public class PathCache {
+    private PathCache() {
+    }
+
+    public static void clear() {
+        CACHE.clear();
+    }
+
+    /**
+     * @return a copy of the cached path for the key, or null if there is none
+     */
+    public static List<Vector> get(Key key) {
+        if (key == null || !isEnabled())
+            return null;
+        Entry entry = CACHE.get(key);
+        if (entry != null && (!entry.revisions.isValid() || System.nanoTime() - entry.storedAt > TimeUnit.SECONDS
+                .toNanos(Setting.PATH_CACHE_EXPIRY_SECONDS.asInt()))) {
+            CACHE.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        List<Vector> path = Lists.newArrayListWithCapacity(entry.path.size());
+        for (Vector vector : entry.path) {
+            path.add(vector.clone());
+        }
+        return path;
+    }
+
+    public static long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the share of lookups that found a path, between 0 and 1
+     */
+    public static double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+
+    public static long getHits() {
+        return hits;
+    }
+
+    public static long getMisses() {
+        return misses;
+    }
+
+    private static boolean isEnabled() {
+        return Setting.PATH_CACHE_SIZE.asInt() > 0;
+    }
+
+    /**
+     * Creates the cache key for navigating the NPC from its current location to the goal.
+     *
+     * @param newPathfinder
+     *            Whether the path will be planned by the A* pathfinder rather than the Minecraft pathfinder
+     * @return the key, or null if the cache is disabled
+     */
+    public static Key key(NPC npc, Location goal, NavigatorParameters params, boolean newPathfinder) {
+        if (!isEnabled())
+            return null;
+        Set<String> examiners = Sets.newTreeSet();
+        for (BlockExaminer examiner : params.examiners()) {
+            examiners.add(examiner.getClass().getName());
+        }
+        int config = examiners.hashCode();
+        config = 31 * config + npc.getEntity().getType().hashCode();
+        config = 31 * config + (params.avoidWater() ? 1 : 0);
+        config = 31 * config + (newPathfinder ? 1 : 0);
+        return new Key(npc.getStoredLocation(), goal, config);
+    }
+
+    /**
+     * Caches a planned path, copying its points. Paths which end too far from the goal, such as partial paths from the
+     * Minecraft pathfinder, are ignored.
+     */
+    public static void put(Key key, Iterable<Vector> path) {
+        if (key == null || !isEnabled())
+            return;
+        List<Vector> copy = Lists.newArrayList();
+        for (Vector vector : path) {
+            copy.add(vector.clone());
+        }
+        if (copy.isEmpty())
+            return;
+        Vector last = copy.get(copy.size() - 1);
+        double dX = last.getBlockX() - key.goalX, dY = last.getBlockY() - key.goalY, dZ = last.getBlockZ() - key.goalZ;
+        if (dX * dX + dY * dY + dZ * dZ > MAX_GOAL_DISTANCE * MAX_GOAL_DISTANCE)
+            return;
+        CACHE.put(key, new Entry(copy, BlockRevisions.snapshot(key.world, copy)));
+        int maxSize = Setting.PATH_CACHE_SIZE.asInt();
+        Iterator<Key> itr = CACHE.keySet().iterator();
+        while (CACHE.size() > maxSize && itr.hasNext()) {
+            itr.next();
+            itr.remove();
+            evictions++;
+        }
+    }
+
+    public static int size() {
+        return CACHE.size();
+    }
+
+    private static class Entry {
+        private final List<Vector> path;
+        private final BlockRevisions.Snapshot revisions;
+        private final long storedAt = System.nanoTime();
+
+        private Entry(List<Vector> path, BlockRevisions.Snapshot revisions) {
+            this.path = path;
+            this.revisions = revisions;
+        }
+    }
+
+    public static class Key {
+        private final int config;
+        private final int goalX, goalY, goalZ;
+        private final int startX, startY, startZ;
+        private final UUID world;
+
+        private Key(Location start, Location goal, int config) {
+            this.world = start.getWorld().getUID();
+            this.startX = start.getBlockX();
+            this.startY = start.getBlockY();
+            this.startZ = start.getBlockZ();
+            this.goalX = goal.getBlockX();
+            this.goalY = goal.getBlockY();
+            this.goalZ = goal.getBlockZ();
+            this.config = config;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null || getClass() != obj.getClass())
+                return false;
+            Key other = (Key) obj;
+            return config == other.config && goalX == other.goalX && goalY == other.goalY && goalZ == other.goalZ
+                    && startX == other.startX && startY == other.startY && startZ == other.startZ
+                    && world.equals(other.world);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = world.hashCode();
+            result = 31 * result + startX;
+            result = 31 * result + startY;
+            result = 31 * result + startZ;
+            result = 31 * result + goalX;
+            result = 31 * result + goalY;
+            result = 31 * result + goalZ;
+            return 31 * result + config;
+        }
+    }
+
+    // access ordered so that iteration starts at the least recently used path
+    private static final Map<Key, Entry> CACHE = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private static long evictions;
+    private static long hits;
+    private static final double MAX_GOAL_DISTANCE = 2;
+    private static long misses;
+}
@@ -0,0 +1,170 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+import com.google.common.collect.Lists;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+
+/**
+ * Shares a global A* iterations-per-tick budget between every NPC that is currently planning a path, instead of giving
+ * each NPC its own {@link Setting#ASTAR_ITERATIONS_PER_TICK} slice.
+ *
+ * At the start of every tick pending {@link Ticket}s are ranked by their explicit priority (the
+ * {@link #PRIORITY_METADATA} NPC metadata), the distance to the nearest player and how long they have been waiting, and
+ * granted slices in that order until the budget runs out. Tickets that have gone without a slice for longer than
+ * {@link Setting#ASTAR_MAX_WAIT_TICKS} are ranked ahead of every other ticket so that low priority NPCs still make
+ * progress, but they are still granted slices from the same budget.
+ */
+public class PathPlanningScheduler {
+    private PathPlanningScheduler() {
+    }
+
+    public static void clear() {
+        for (Ticket ticket : TICKETS) {
+            ticket.scheduled = false;
+        }
+        TICKETS.clear();
+    }
+
+    public static int getPendingCount() {
+        return TICKETS.size();
+    }
+
+    private static boolean isEnabled() {
+        return Setting.ASTAR_GLOBAL_ITERATIONS_PER_TICK.asInt() > 0;
+    }
+
+    /**
+     * Hands out this tick's slices. Should be called once at the start of every server tick.
+     */
+    public static void startTick() {
+        currentTick++;
+        if (TICKETS.isEmpty())
+            return;
+        if (!isEnabled()) {
+            clear();
+            return;
+        }
+        List<Ticket> ranked = Lists.newArrayListWithCapacity(TICKETS.size());
+        int maxWait = Setting.ASTAR_MAX_WAIT_TICKS.asInt();
+        for (int i = TICKETS.size() - 1; i >= 0; i--) {
+            Ticket ticket = TICKETS.get(i);
+            if (!ticket.npc.isSpawned()) {
+                ticket.scheduled = false;
+                TICKETS.remove(i);
+                continue;
+            }
+            ticket.granted = 0;
+            ticket.starving = maxWait > 0 && currentTick - ticket.lastGrantedAt >= maxWait;
+            ticket.updateScore();
+            ranked.add(ticket);
+        }
+        Collections.sort(ranked, BY_SCORE);
+        int remaining = Setting.ASTAR_GLOBAL_ITERATIONS_PER_TICK.asInt();
+        int slice = Setting.ASTAR_ITERATIONS_PER_TICK.asInt();
+        slice = slice <= 0 ? remaining : slice;
+        for (Ticket ticket : ranked) {
+            if (remaining <= 0)
+                break;
+            ticket.granted = Math.min(slice, remaining);
+            ticket.lastGrantedAt = currentTick;
+            remaining -= ticket.granted;
+        }
+    }
+
+    /**
+     * Registers an NPC that is about to start planning a path. The returned ticket should be cancelled once the search
+     * finishes or is abandoned.
+     */
+    public static Ticket submit(NPC npc) {
+        Ticket ticket = new Ticket(npc);
+        if (isEnabled()) {
+            ticket.scheduled = true;
+            TICKETS.add(ticket);
+        }
+        return ticket;
+    }
+
+    public static class Ticket {
+        private int granted;
+        private int lastGrantedAt = currentTick;
+        private double nearestPlayer = Double.MAX_VALUE;
+        private final NPC npc;
+        private int proximityCheckedAt = currentTick - PROXIMITY_RECHECK_TICKS;
+        private boolean scheduled;
+        private double score;
+        private boolean starving;
+        private final int submittedAt = currentTick;
+
+        private Ticket(NPC npc) {
+            this.npc = npc;
+        }
+
+        public void cancel() {
+            if (scheduled) {
+                scheduled = false;
+                TICKETS.remove(this);
+            }
+        }
+
+        /**
+         * @return whether the NPC may search this tick
+         */
+        public boolean isReady() {
+            return !scheduled || granted > 0;
+        }
+
+        /**
+         * Returns the iterations granted to this ticket for the current tick. Subsequent calls in the same tick return
+         * 0. If the global budget is disabled, always returns the per-NPC {@link Setting#ASTAR_ITERATIONS_PER_TICK}.
+         */
+        public int takeIterations() {
+            if (!scheduled)
+                return Setting.ASTAR_ITERATIONS_PER_TICK.asInt();
+            int iterations = granted;
+            granted = 0;
+            return iterations;
+        }
+
+        private void updateScore() {
+            if (currentTick - proximityCheckedAt >= PROXIMITY_RECHECK_TICKS) {
+                proximityCheckedAt = currentTick;
+                Location loc = npc.getStoredLocation();
+                nearestPlayer = Double.MAX_VALUE;
+                for (Player player : CitizensAPI.getLocationLookup().getNearbyPlayers(loc, PROXIMITY_RANGE)) {
+                    nearestPlayer = Math.min(nearestPlayer, player.getLocation().distanceSquared(loc));
+                }
+                nearestPlayer = nearestPlayer == Double.MAX_VALUE ? nearestPlayer : Math.sqrt(nearestPlayer);
+            }
+            int priority = npc.data().get(PRIORITY_METADATA, 0);
+            double proximity = nearestPlayer >= PROXIMITY_RANGE ? 0
+                    : (PROXIMITY_RANGE - nearestPlayer) / PROXIMITY_RANGE * PROXIMITY_WEIGHT;
+            // waiting since the last slice matters most for fairness, total age breaks ties between new requests
+            score = priority * PRIORITY_WEIGHT + proximity + (currentTick - lastGrantedAt)
+                    + (currentTick - submittedAt) / AGE_DIVISOR;
+        }
+    }
+
+    private static final double AGE_DIVISOR = 4;
+    private static final Comparator<Ticket> BY_SCORE = (a, b) -> a.starving != b.starving ? (a.starving ? -1 : 1)
+            : Double.compare(b.score, a.score);
+    private static int currentTick;
+    /**
+     * An integer NPC metadata key which raises (or, if negative, lowers) an NPC's share of the pathfinding budget.
+     * Each point of priority outweighs being right next to a player.
+     */
+    public static final String PRIORITY_METADATA = "pathfinding-priority";
+    private static final double PRIORITY_WEIGHT = 32;
+    private static final double PROXIMITY_RANGE = 64;
+    private static final int PROXIMITY_RECHECK_TICKS = 20;
+    private static final double PROXIMITY_WEIGHT = 16;
+    private static final List<Ticket> TICKETS = Lists.newArrayList();
+}
@@ -0,0 +1,408 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+
+import gnu.trove.list.array.TLongArrayList;
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.api.util.SpigotUtil;
+import net.citizensnpcs.util.BlockRevisions;
+
+/**
+ * The abstract graph used for hierarchical pathfinding. The world is split into 16x16x16 chunk sections, and for every
+ * section the walkable positions along its borders are grouped into entrances to the neighbouring sections. The walking
+ * distance between every pair of entrances of a section is precomputed, so that a long route can be planned over
+ * entrances instead of over individual blocks.
+ *
+ * Sections are built lazily as searches reach them and kept in a least-recently-used cache per world. A section is
+ * rebuilt once a block changes in it or a section sharing a face with it (see {@link BlockRevisions}). Sections are
+ * only built from loaded chunks, and at most {@link Setting#HIERARCHICAL_PATHFINDING_SECTIONS_PER_TICK} are built per
+ * tick across every search. Only the entrances and the distances between them are kept once a section is built.
+ */
+public class SectionGraph {
+    private SectionGraph() {
+    }
+
+    /**
+     * Builds and caches the section. Never loads chunks.
+     *
+     * @return the section, or null if its chunk or one of the chunks next to it is not loaded
+     */
+    static Section build(World world, long sectionKey) {
+        int sectionX = unpackX(sectionKey), sectionY = unpackY(sectionKey), sectionZ = unpackZ(sectionKey);
+        if (!isAreaLoaded(world, sectionX, sectionZ))
+            return null;
+        Section section = new Section(sectionKey,
+                BlockRevisions.snapshotAround(world.getUID(), sectionX, sectionY, sectionZ));
+        section.build(world);
+        Map<Long, Section> sections = SECTIONS.get(world.getUID());
+        if (sections == null) {
+            SECTIONS.put(world.getUID(), sections = new LinkedHashMap<Long, Section>(16, 0.75f, true));
+        }
+        sections.put(sectionKey, section);
+        int maxSections = Setting.HIERARCHICAL_PATHFINDING_MAX_SECTIONS.asInt();
+        Iterator<Long> itr = sections.keySet().iterator();
+        while (sections.size() > maxSections && itr.hasNext()) {
+            itr.next();
+            itr.remove();
+        }
+        return section;
+    }
+
+    public static void clear() {
+        SECTIONS.clear();
+    }
+
+    /**
+     * Resets the number of sections built this tick. Should be called once at the start of every server tick.
+     */
+    public static void startTick() {
+        buildsThisTick = 0;
+    }
+
+    /**
+     * Takes one section build from this tick's budget, which is shared between every search.
+     *
+     * @return whether a section may be built this tick
+     */
+    static boolean tryBuild() {
+        if (buildsThisTick >= Math.max(1, Setting.HIERARCHICAL_PATHFINDING_SECTIONS_PER_TICK.asInt()))
+            return false;
+        buildsThisTick++;
+        return true;
+    }
+
+    /**
+     * @return the cached section, or null if it hasn't been built or blocks in or around it have changed since
+     */
+    static Section getCached(World world, long sectionKey) {
+        Map<Long, Section> sections = SECTIONS.get(world.getUID());
+        if (sections == null)
+            return null;
+        Section section = sections.get(sectionKey);
+        if (section == null)
+            return null;
+        if (!section.revisions.isValid()) {
+            sections.remove(sectionKey);
+            return null;
+        }
+        return section;
+    }
+
+    /**
+     * @return whether the chunk and the chunks around it are loaded
+     */
+    private static boolean isAreaLoaded(World world, int chunkX, int chunkZ) {
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dz = -1; dz <= 1; dz++) {
+                if (!world.isChunkLoaded(chunkX + dx, chunkZ + dz))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether an NPC can stand at the position: solid ground below and room for its feet and head
+     */
+    static boolean isWalkable(World world, int x, int y, int z) {
+        if (!SpigotUtil.checkYSafe(y - 1, world) || !SpigotUtil.checkYSafe(y + 1, world))
+            return false;
+        return MinecraftBlockExaminer.canStandOn(world.getBlockAt(x, y - 1, z))
+                && MinecraftBlockExaminer.canStandIn(world.getBlockAt(x, y, z))
+                && MinecraftBlockExaminer.canStandIn(world.getBlockAt(x, y + 1, z));
+    }
+
+    /**
+     * Packs block (or section) coordinates into a long: 26 bits each for x and z and 12 bits for y.
+     */
+    static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    static long sectionKeyOf(long pos) {
+        return pack(unpackX(pos) >> 4, unpackY(pos) >> 4, unpackZ(pos) >> 4);
+    }
+
+    public static void unload(World world) {
+        SECTIONS.remove(world.getUID());
+    }
+
+    static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    /**
+     * A walkable move between a position inside a section and a position in a neighbouring section. Crossings are
+     * stored with their endpoints in a canonical order so that both sections group them into the same entrances.
+     */
+    private static class Crossing {
+        private final long first;
+        private final long inside;
+        private final long outside;
+        private final long second;
+
+        private Crossing(long inside, long outside) {
+            this.inside = inside;
+            this.outside = outside;
+            this.first = Math.min(inside, outside);
+            this.second = Math.max(inside, outside);
+        }
+
+        private boolean isAdjacent(Crossing other) {
+            return isAdjacent(first, other.first) && isAdjacent(second, other.second);
+        }
+
+        private static boolean isAdjacent(long a, long b) {
+            return Math.abs(unpackX(a) - unpackX(b)) + Math.abs(unpackZ(a) - unpackZ(b)) == 1
+                    && Math.abs(unpackY(a) - unpackY(b)) <= 1;
+        }
+    }
+
+    static class Section {
+        /** The outside endpoint of each entrance */
+        long[] partners;
+        /** The index into {@link #nodes} of the inside endpoint of each entrance */
+        int[] partnerNodes;
+        /** The walking distance between each pair of nodes, or -1 if one can't be reached from the other */
+        int[][] distances;
+        final long key;
+        /** The distinct inside endpoints of the entrances */
+        long[] nodes;
+        private final BlockRevisions.Snapshot revisions;
+
+        private Section(long key, BlockRevisions.Snapshot revisions) {
+            this.key = key;
+            this.revisions = revisions;
+        }
+
+        private void build(World world) {
+            int baseX = unpackX(key) << 4, baseY = unpackY(key) << 4, baseZ = unpackZ(key) << 4;
+            long[] walkable = readWalkable(world);
+            List<Crossing> crossings = findCrossings(world, walkable, baseX, baseY, baseZ);
+            List<Crossing> entrances = groupEntrances(crossings);
+            TLongArrayList distinct = new TLongArrayList();
+            for (Crossing entrance : entrances) {
+                if (!distinct.contains(entrance.inside)) {
+                    distinct.add(entrance.inside);
+                }
+            }
+            distinct.sort();
+            nodes = distinct.toArray();
+            partners = new long[entrances.size()];
+            partnerNodes = new int[entrances.size()];
+            for (int i = 0; i < entrances.size(); i++) {
+                partners[i] = entrances.get(i).outside;
+                partnerNodes[i] = Arrays.binarySearch(nodes, entrances.get(i).inside);
+            }
+            distances = new int[nodes.length][];
+            for (int i = 0; i < nodes.length; i++) {
+                int[] from = distancesFrom(walkable, nodes[i]);
+                distances[i] = new int[nodes.length];
+                for (int j = 0; j < nodes.length; j++) {
+                    distances[i][j] = from[localIndex(nodes[j])];
+                }
+            }
+        }
+
+        /**
+         * Reads the blocks of the section again to find the walking distances from a position which isn't a node,
+         * such as the start or goal of a search.
+         *
+         * @return the walking distances as in {@link #distancesFrom(long[], long)}, or -1 everywhere if the section's
+         *         chunk has been unloaded since it was built
+         */
+        int[] distancesFrom(World world, long pos) {
+            if (!isAreaLoaded(world, unpackX(key), unpackZ(key))) {
+                int[] distances = new int[SIZE * SIZE * SIZE];
+                Arrays.fill(distances, -1);
+                return distances;
+            }
+            return distancesFrom(readWalkable(world), pos);
+        }
+
+        /**
+         * Finds the walkable positions of the section, as a bitset indexed by {@link #index(int, int, int)}.
+         */
+        private long[] readWalkable(World world) {
+            int baseX = unpackX(key) << 4, baseY = unpackY(key) << 4, baseZ = unpackZ(key) << 4;
+            long[] walkable = new long[SIZE * SIZE * SIZE / 64];
+            boolean[] standOn = new boolean[SIZE + 2];
+            boolean[] standIn = new boolean[SIZE + 2];
+            for (int x = 0; x < SIZE; x++) {
+                for (int z = 0; z < SIZE; z++) {
+                    // read each column once, from the block below the section to the block above it
+                    for (int y = -1; y <= SIZE; y++) {
+                        if (!SpigotUtil.checkYSafe(baseY + y, world)) {
+                            // nothing to stand on outside the world, but there is room to stand above it
+                            standOn[y + 1] = false;
+                            standIn[y + 1] = baseY + y > 0;
+                            continue;
+                        }
+                        Block block = world.getBlockAt(baseX + x, baseY + y, baseZ + z);
+                        standOn[y + 1] = MinecraftBlockExaminer.canStandOn(block);
+                        standIn[y + 1] = MinecraftBlockExaminer.canStandIn(block);
+                    }
+                    for (int y = 0; y < SIZE; y++) {
+                        if (standOn[y] && standIn[y + 1] && standIn[y + 2]) {
+                            int index = index(x, y, z);
+                            walkable[index >> 6] |= 1L << index;
+                        }
+                    }
+                }
+            }
+            return walkable;
+        }
+
+        /**
+         * Breadth-first searches the walkable positions of the section.
+         *
+         * @return the walking distance from the position to every position in the section, indexed by
+         *         {@link #localIndex(long)}, or -1 for positions that can't be reached without leaving the section
+         */
+        private static int[] distancesFrom(long[] walkable, long pos) {
+            int[] distances = new int[SIZE * SIZE * SIZE];
+            Arrays.fill(distances, -1);
+            int start = localIndex(pos);
+            if (!isWalkable(walkable, start))
+                return distances;
+            distances[start] = 0;
+            ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                int current = queue.poll();
+                int x = current & 15, z = (current >> 4) & 15, y = current >> 8;
+                for (int[] dir : DIRECTIONS) {
+                    int nx = x + dir[0], nz = z + dir[1];
+                    if (nx < 0 || nx >= SIZE || nz < 0 || nz >= SIZE)
+                        continue;
+                    for (int dy = -1; dy <= 1; dy++) {
+                        int ny = y + dy;
+                        if (ny < 0 || ny >= SIZE)
+                            continue;
+                        int next = index(nx, ny, nz);
+                        if (distances[next] == -1 && isWalkable(walkable, next)) {
+                            distances[next] = distances[current] + 1;
+                            queue.add(next);
+                        }
+                    }
+                }
+            }
+            return distances;
+        }
+
+        private static List<Crossing> findCrossings(World world, long[] walkable, int baseX, int baseY, int baseZ) {
+            List<Crossing> crossings = Lists.newArrayList();
+            for (int index = 0; index < walkable.length * 64; index++) {
+                if (!isWalkable(walkable, index))
+                    continue;
+                int x = index & 15, z = (index >> 4) & 15, y = index >> 8;
+                if (x != 0 && x != SIZE - 1 && z != 0 && z != SIZE - 1 && y != 0 && y != SIZE - 1)
+                    continue;
+                for (int[] dir : DIRECTIONS) {
+                    for (int dy = -1; dy <= 1; dy++) {
+                        int nx = x + dir[0], ny = y + dy, nz = z + dir[1];
+                        if (nx >= 0 && nx < SIZE && ny >= 0 && ny < SIZE && nz >= 0 && nz < SIZE)
+                            continue;
+                        if (SectionGraph.isWalkable(world, baseX + nx, baseY + ny, baseZ + nz)) {
+                            crossings.add(new Crossing(pack(baseX + x, baseY + y, baseZ + z),
+                                    pack(baseX + nx, baseY + ny, baseZ + nz)));
+                        }
+                    }
+                }
+            }
+            return crossings;
+        }
+
+        /**
+         * Groups crossings into runs of adjacent crossings into the same section in the same direction, and keeps the
+         * middle crossing of each run as an entrance.
+         */
+        private static List<Crossing> groupEntrances(List<Crossing> crossings) {
+            Table<Long, Long, List<Crossing>> groups = HashBasedTable.create();
+            for (Crossing crossing : crossings) {
+                long direction = pack(unpackX(crossing.second) - unpackX(crossing.first), 0,
+                        unpackZ(crossing.second) - unpackZ(crossing.first));
+                long neighbour = sectionKeyOf(crossing.outside);
+                List<Crossing> group = groups.get(neighbour, direction);
+                if (group == null) {
+                    groups.put(neighbour, direction, group = Lists.newArrayList());
+                }
+                group.add(crossing);
+            }
+            List<Crossing> entrances = Lists.newArrayList();
+            for (List<Crossing> group : groups.values()) {
+                Collections.sort(group, BY_CANONICAL_ORDER);
+                boolean[] used = new boolean[group.size()];
+                for (int i = 0; i < group.size(); i++) {
+                    if (used[i])
+                        continue;
+                    List<Crossing> run = Lists.newArrayList(group.get(i));
+                    used[i] = true;
+                    for (int r = 0; r < run.size(); r++) {
+                        for (int j = i + 1; j < group.size(); j++) {
+                            if (!used[j] && run.get(r).isAdjacent(group.get(j))) {
+                                used[j] = true;
+                                run.add(group.get(j));
+                            }
+                        }
+                    }
+                    Collections.sort(run, BY_CANONICAL_ORDER);
+                    entrances.add(run.get(run.size() / 2));
+                }
+            }
+            return entrances;
+        }
+
+        /**
+         * @return the index of the position in {@link #nodes}, or a negative number if it is not a node
+         */
+        int indexOf(long pos) {
+            return Arrays.binarySearch(nodes, pos);
+        }
+
+        private static boolean isWalkable(long[] walkable, int index) {
+            return (walkable[index >> 6] & (1L << index)) != 0;
+        }
+
+        private static int index(int x, int y, int z) {
+            return x | (z << 4) | (y << 8);
+        }
+
+        static int localIndex(long pos) {
+            return index(unpackX(pos) & 15, unpackY(pos) & 15, unpackZ(pos) & 15);
+        }
+    }
+
+    private static int buildsThisTick;
+    private static final Comparator<Crossing> BY_CANONICAL_ORDER = (a, b) -> a.first != b.first
+            ? Long.compare(a.first, b.first)
+            : Long.compare(a.second, b.second);
+    private static final int[][] DIRECTIONS = { { 1, 0 }, { -1, 0 }, { 0, 1 }, { 0, -1 } };
+    private static final Map<UUID, Map<Long, Section>> SECTIONS = Maps.newHashMap();
+    private static final int SIZE = 16;
+}
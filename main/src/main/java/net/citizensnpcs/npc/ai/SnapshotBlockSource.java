@@ -0,0 +1,180 @@
+package net.citizensnpcs.npc.ai;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.block.data.Waterlogged;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.citizensnpcs.api.astar.pathfinder.BlockExaminer;
+import net.citizensnpcs.api.astar.pathfinder.BlockSource;
+import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
+import net.citizensnpcs.api.util.BoundingBox;
+import net.citizensnpcs.api.util.SpigotUtil;
+import net.citizensnpcs.util.NMS;
+
+/**
+ * A {@link BlockSource} backed by {@link ChunkSnapshot}s captured on the main thread, so that block materials can be
+ * read safely while searching on another thread.
+ *
+ * Only the loaded chunks within a margin of the straight line between the start and end of the path, and within the
+ * pathfinding range, are captured. Blocks outside of the captured chunks are reported as {@link Material#BARRIER} so
+ * that the search can't leave them.
+ *
+ * Live {@link Block}s and collision boxes can't be answered from a snapshot, so {@link #getBlockAt(int, int, int)} and
+ * {@link #getCollisionBox(int, int, int)} throw a {@link LiveBlockAccessException} off the main thread. The examiner
+ * which does so is remembered, and later searches using it are planned on the main thread instead.
+ */
+public class SnapshotBlockSource extends BlockSource {
+    private final TLongObjectHashMap<ChunkSnapshot> chunks = new TLongObjectHashMap<ChunkSnapshot>();
+    private final World world;
+
+    public SnapshotBlockSource(Location from, Location to, float range) {
+        this.world = from.getWorld();
+        int minX = clamp(Math.min(from.getBlockX(), to.getBlockX()) - MARGIN, from.getBlockX(), range);
+        int maxX = clamp(Math.max(from.getBlockX(), to.getBlockX()) + MARGIN, from.getBlockX(), range);
+        int minZ = clamp(Math.min(from.getBlockZ(), to.getBlockZ()) - MARGIN, from.getBlockZ(), range);
+        int maxZ = clamp(Math.max(from.getBlockZ(), to.getBlockZ()) + MARGIN, from.getBlockZ(), range);
+        for (int cx = minX >> 4; cx <= maxX >> 4; cx++) {
+            for (int cz = minZ >> 4; cz <= maxZ >> 4; cz++) {
+                if (!nearLine(cx, cz, from, to) || !world.isChunkLoaded(cx, cz))
+                    continue;
+                chunks.put(key(cx, cz), world.getChunkAt(cx, cz).getChunkSnapshot(false, false, false));
+            }
+        }
+    }
+
+    private void checkMainThread() {
+        if (!Bukkit.isPrimaryThread())
+            throw new LiveBlockAccessException();
+    }
+
+    @Override
+    public Block getBlockAt(int x, int y, int z) {
+        checkMainThread();
+        return world.getBlockAt(x, y, z);
+    }
+
+    @Override
+    public BoundingBox getCollisionBox(int x, int y, int z) {
+        checkMainThread();
+        return NMS.getCollisionBox(world.getBlockAt(x, y, z));
+    }
+
+    @Override
+    public Material getMaterialAt(int x, int y, int z) {
+        ChunkSnapshot chunk = chunks.get(key(x >> 4, z >> 4));
+        if (chunk == null)
+            return Material.BARRIER;
+        if (!SpigotUtil.checkYSafe(y, world))
+            return Material.AIR;
+        return chunk.getBlockType(x & 15, y, z & 15);
+    }
+
+    @Override
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * The snapshot equivalent of {@link MinecraftBlockExaminer#isLiquidOrInLiquid(Block)}.
+     *
+     * @return whether the block is a liquid or waterlogged
+     */
+    public boolean isLiquidOrInLiquid(int x, int y, int z) {
+        ChunkSnapshot chunk = chunks.get(key(x >> 4, z >> 4));
+        if (chunk == null || !SpigotUtil.checkYSafe(y, world))
+            return false;
+        BlockData data = chunk.getBlockData(x & 15, y, z & 15);
+        return MinecraftBlockExaminer.isLiquid(data.getMaterial())
+                || (data instanceof Waterlogged && ((Waterlogged) data).isWaterlogged());
+    }
+
+    /**
+     * Thrown when a search on another thread reads something that isn't captured in the snapshot.
+     */
+    public static class LiveBlockAccessException extends RuntimeException {
+        private LiveBlockAccessException() {
+            super("live block read off the main thread");
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * @return whether a search using the given examiners can run against a snapshot: the server version supports
+     *         snapshots and none of the examiners has been seen reading live blocks
+     */
+    public static boolean canPlan(BlockExaminer... examiners) {
+        if (!SpigotUtil.isUsing1_13API())
+            return false;
+        for (BlockExaminer examiner : examiners) {
+            if (LIVE_EXAMINERS.contains(examiner))
+                return false;
+        }
+        return true;
+    }
+
+    private static int clamp(int value, int centre, float range) {
+        return (int) Math.max(centre - range, Math.min(centre + range, value));
+    }
+
+    private static long key(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Remembers which of the examiners of a search read live blocks, found from the stack trace of the exception. If
+     * none of them is on the stack, every examiner is remembered.
+     */
+    public static void markLive(LiveBlockAccessException cause, BlockExaminer... examiners) {
+        for (StackTraceElement frame : cause.getStackTrace()) {
+            boolean found = false;
+            for (BlockExaminer examiner : examiners) {
+                if (threw(examiner, frame)) {
+                    LIVE_EXAMINERS.add(examiner);
+                    found = true;
+                }
+            }
+            if (found)
+                return;
+        }
+        Collections.addAll(LIVE_EXAMINERS, examiners);
+    }
+
+    /**
+     * @return whether the chunk's centre is within the margin (plus half a chunk diagonal) of the line between the
+     *         locations, ignoring height
+     */
+    private static boolean nearLine(int chunkX, int chunkZ, Location from, Location to) {
+        double x = (chunkX << 4) + 8, z = (chunkZ << 4) + 8;
+        double dx = to.getX() - from.getX(), dz = to.getZ() - from.getZ();
+        double lengthSquared = dx * dx + dz * dz;
+        double t = lengthSquared == 0 ? 0
+                : Math.max(0, Math.min(1, ((x - from.getX()) * dx + (z - from.getZ()) * dz) / lengthSquared));
+        double nearestX = from.getX() + t * dx - x, nearestZ = from.getZ() + t * dz - z;
+        double limit = MARGIN + 12;
+        return nearestX * nearestX + nearestZ * nearestZ <= limit * limit;
+    }
+
+    private static boolean threw(BlockExaminer examiner, StackTraceElement frame) {
+        for (Class<?> clazz = examiner.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+            if (clazz.getName().equals(frame.getClassName()))
+                return true;
+        }
+        return false;
+    }
+
+    // weak so that the examiners of removed NPCs aren't kept
+    private static final Set<BlockExaminer> LIVE_EXAMINERS = Collections
+            .synchronizedSet(Collections.newSetFromMap(new WeakHashMap<BlockExaminer, Boolean>()));
+    private static final int MARGIN = 16;
+}
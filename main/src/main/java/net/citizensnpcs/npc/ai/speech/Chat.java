@@ -3,7 +3,9 @@ package net.citizensnpcs.npc.ai.speech;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.bukkit.Location;
 import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
 
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
@@ -12,6 +14,7 @@ import net.citizensnpcs.api.ai.speech.Talkable;
 import net.citizensnpcs.api.ai.speech.VocalChord;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.util.NPCSpatialIndex;
 
 public class Chat implements VocalChord {
     @Override
@@ -100,9 +103,18 @@ public class Chat implements VocalChord {
     }
 
     private void talkToBystanders(NPC npc, String text, SpeechContext context) {
-        // Get list of nearby entities
-        List<Entity> bystanderEntities = npc.getEntity().getNearbyEntities(Setting.CHAT_RANGE.asDouble(),
-                Setting.CHAT_RANGE.asDouble(), Setting.CHAT_RANGE.asDouble());
+        // Get list of nearby players and NPCs
+        Location location = npc.getEntity().getLocation();
+        double range = Setting.CHAT_RANGE.asDouble();
+        List<Entity> bystanderEntities = new ArrayList<Entity>();
+        for (Player player : CitizensAPI.getLocationLookup().getNearbyPlayers(location, range)) {
+            bystanderEntities.add(player);
+        }
+        for (NPC nearby : NPCSpatialIndex.getNearbyNPCs(location, range)) {
+            if (nearby != npc && !bystanderEntities.contains(nearby.getEntity())) {
+                bystanderEntities.add(nearby.getEntity());
+            }
+        }
         for (Entity bystander : bystanderEntities) {
             boolean shouldTalk = true;
             if (!Setting.TALK_CLOSE_TO_NPCS.asBoolean() && CitizensAPI.getNPCRegistry().isNPC(bystander)) {
@@ -21,8 +21,6 @@ import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicates;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 
 import net.citizensnpcs.Settings.Setting;
@@ -30,6 +28,8 @@ import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.npc.NPCRegistry;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.util.NPCSpatialIndex;
+import net.citizensnpcs.util.NPCTickBudget;
 import net.citizensnpcs.util.Util;
 
 /**
@@ -102,15 +102,14 @@ public class SkinUpdateTracker {
         return true;
     }
 
-    private Iterable<NPC> getAllNPCs() {
-        return Iterables.filter(Iterables.concat(CitizensAPI.getNPCRegistry(), Iterables.concat(registries.values())),
-                Predicates.notNull());
-    }
-
     private List<SkinnableEntity> getNearbyNPCs(Player player, boolean reset, boolean checkFov) {
         List<SkinnableEntity> results = new ArrayList<SkinnableEntity>();
         PlayerTracker tracker = getTracker(player, reset);
-        for (NPC npc : getAllNPCs()) {
+        for (NPC npc : NPCSpatialIndex.getNearbyNPCs(player.getLocation(),
+                Setting.NPC_SKIN_VIEW_DISTANCE.asDouble())) {
+            if (npc.getOwningRegistry() != CitizensAPI.getNPCRegistry()
+                    && !registries.containsValue(npc.getOwningRegistry()))
+                continue;
             SkinnableEntity skinnable = getSkinnable(npc);
             if (skinnable == null)
                 continue;
@@ -363,9 +362,12 @@ public class SkinUpdateTracker {
 
         @Override
         public void run() {
-            while (!queue.isEmpty()) {
+            // leftover updates stay queued for the next tick once the NPC tick budget is exhausted
+            while (!queue.isEmpty() && NPCTickBudget.hasTimeRemaining()) {
                 UpdateInfo info = queue.remove();
+                long start = System.nanoTime();
                 info.entity.getSkinTracker().updateViewer(info.player);
+                NPCTickBudget.record(System.nanoTime() - start);
             }
         }
     }
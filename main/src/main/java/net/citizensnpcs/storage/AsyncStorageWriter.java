@@ -0,0 +1,298 @@
+package net.citizensnpcs.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.NBTStorage;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.storage.SaveHistory.Record;
+import net.citizensnpcs.util.Messages;
+
+/**
+ * Saves {@link Storage} trees to disk on a single background thread.
+ *
+ * The main thread takes an immutable snapshot of the tree, so the live storage can keep being modified while the
+ * snapshot is written. Each snapshot is written to a temporary file, flushed to the disk and then atomically moved over
+ * the target file, so a crash never leaves a partially written file behind. If a file is saved again before an earlier
+ * save of it has started, the earlier snapshot is dropped and only the latest one is written, and a warning is logged
+ * since saves are being requested faster than they can be written.
+ */
+public class AsyncStorageWriter {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Citizens Storage Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SaveHistory history;
+    private final Map<File, Snapshot> pending = new ConcurrentHashMap<File, Snapshot>();
+    private final Set<File> writing = ConcurrentHashMap.newKeySet();
+
+    public AsyncStorageWriter() {
+        this(null);
+    }
+
+    /**
+     * @param history
+     *            Where to record each file write, or null
+     */
+    public AsyncStorageWriter(SaveHistory history) {
+        this.history = history;
+    }
+
+    /**
+     * Blocks until every save submitted so far has been written.
+     */
+    public void awaitCompletion() {
+        try {
+            executor.submit(() -> {
+            }).get(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (RejectedExecutionException e) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            Messaging.severe("Timed out waiting for storage to be saved");
+        }
+    }
+
+    /**
+     * Runs a task on the writer thread after any previously queued saves, or on the calling thread if the writer has
+     * been shut down.
+     */
+    public void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * Snapshots the target's storage and queues it to be written to disk. Must be called from the thread that
+     * modifies the storage.
+     */
+    public void save(SaveTarget target) {
+        save(target, null);
+    }
+
+    /**
+     * Snapshots the target's storage and queues it to be written to disk, then calls the callback on the writer thread
+     * with whether the write succeeded. If the snapshot is dropped for a later one, the callback is called once the
+     * later snapshot has been written. Must be called from the thread that modifies the storage.
+     *
+     * @param callback
+     *            Called before anything queued after the save runs, or null
+     */
+    public void save(SaveTarget target, Consumer<Boolean> callback) {
+        long start = System.nanoTime();
+        Record record = history == null ? null : history.begin("write " + target.file.getName(), true);
+        Snapshot snapshot = new Snapshot(target, copy(target.storage.getKey("").getValuesDeep()), record);
+        if (record != null) {
+            record.addMainThreadTime(System.nanoTime() - start);
+        }
+        if (callback != null) {
+            snapshot.callbacks.add(callback);
+        }
+        if (executor.isShutdown()) {
+            write(snapshot);
+            return;
+        }
+        Snapshot replaced;
+        synchronized (pending) {
+            replaced = pending.put(target.file, snapshot);
+            if (replaced != null) {
+                snapshot.callbacks.addAll(replaced.callbacks);
+            }
+        }
+        if (replaced != null) {
+            Messaging.logTr(Messages.SAVE_STILL_IN_FLIGHT, target.file.getName());
+            if (replaced.record != null) {
+                replaced.record.coalesce();
+            }
+            return;
+        }
+        if (writing.contains(target.file)) {
+            Messaging.logTr(Messages.SAVE_STILL_WRITING, target.file.getName());
+        }
+        executor.execute(() -> {
+            writing.add(target.file);
+            try {
+                Snapshot latest;
+                synchronized (pending) {
+                    latest = pending.remove(target.file);
+                }
+                if (latest != null) {
+                    write(latest);
+                }
+            } finally {
+                writing.remove(target.file);
+            }
+        });
+    }
+
+    /**
+     * Writes any queued saves and stops the writer thread. Later saves are written on the calling thread.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(AWAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Snapshot snapshot) {
+        File file = snapshot.target.file;
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+        boolean written = false;
+        try {
+            file.getParentFile().mkdirs();
+            Files.deleteIfExists(temporary.toPath());
+            snapshot.target.format.write(temporary, snapshot.values);
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (snapshot.record != null) {
+                snapshot.record.addBytes(file.length());
+            }
+            written = true;
+        } catch (Throwable t) {
+            Messaging.severe("Unable to save " + file.getName() + ":");
+            t.printStackTrace();
+        } finally {
+            if (snapshot.record != null) {
+                snapshot.record.complete();
+            }
+        }
+        for (Consumer<Boolean> callback : snapshot.callbacks) {
+            callback.accept(written);
+        }
+    }
+
+    /**
+     * A storage tree together with the file it is saved to and how it is serialised.
+     */
+    public static class SaveTarget {
+        private final File file;
+        private final SnapshotFormat format;
+        private final Storage storage;
+
+        private SaveTarget(Storage storage, File file, SnapshotFormat format) {
+            this.storage = storage;
+            this.file = file;
+            this.format = format;
+        }
+
+        public static SaveTarget binary(Storage storage, File file) {
+            return new SaveTarget(storage, file, BinaryStorage::write);
+        }
+
+        public static SaveTarget nbt(Storage storage, File file, String name) {
+            return new SaveTarget(storage, file, (temporary, values) -> {
+                // created up front so that the storage doesn't log that it is creating a new file
+                Files.createFile(temporary.toPath());
+                Storage copy = new NBTStorage(temporary, name);
+                set(copy.getKey(""), values);
+                copy.save();
+            });
+        }
+
+        public static SaveTarget yaml(Storage storage, File file, String header) {
+            return new SaveTarget(storage, file, (temporary, values) -> {
+                YamlConfiguration yaml = new YamlConfiguration();
+                if (header != null) {
+                    yaml.options().header(header);
+                }
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    yaml.set(entry.getKey(), entry.getValue());
+                }
+                Files.write(temporary.toPath(), yaml.saveToString().getBytes(StandardCharsets.UTF_8));
+            });
+        }
+    }
+
+    private static class Snapshot {
+        private final List<Consumer<Boolean>> callbacks = new ArrayList<Consumer<Boolean>>();
+        private final Record record;
+        private final SaveTarget target;
+        private final Map<String, Object> values;
+
+        private Snapshot(SaveTarget target, Map<String, Object> values, Record record) {
+            this.target = target;
+            this.values = values;
+            this.record = record;
+        }
+    }
+
+    private interface SnapshotFormat {
+        void write(File temporary, Map<String, Object> values) throws IOException;
+    }
+
+    private static Map<String, Object> copy(Map<String, Object> values) {
+        Map<String, Object> copy = new LinkedHashMap<String, Object>(values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            copy.put(entry.getKey(), copyValue(entry.getValue()));
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value) {
+        if (value instanceof ConfigurationSection)
+            return copy(((ConfigurationSection) value).getValues(false));
+        if (value instanceof Map)
+            return copy((Map<String, Object>) value);
+        if (value instanceof Collection) {
+            List<Object> copy = new ArrayList<Object>(((Collection<?>) value).size());
+            for (Object element : (Collection<?>) value) {
+                copy.add(copyValue(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void set(DataKey key, Map<String, Object> values) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                set(key.getRelative(entry.getKey()), (Map<String, Object>) entry.getValue());
+            } else {
+                key.setRaw(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static final int AWAIT_TIMEOUT_SECONDS = 60;
+}
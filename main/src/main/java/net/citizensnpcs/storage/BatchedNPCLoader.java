@@ -0,0 +1,119 @@
+package net.citizensnpcs.storage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import net.citizensnpcs.api.npc.NPCRegistry;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.storage.NPCDataLoader.StoredNPC;
+import net.citizensnpcs.storage.SaveHistory.Record;
+
+/**
+ * Loads a large number of stored NPCs without freezing the server. The stored data is decoded and parsed on the common
+ * {@link ForkJoinPool}, then the NPCs are created, their traits loaded and spawned on the main thread in batches, spending
+ * at most a fixed amount of time per tick.
+ *
+ * The parser must not read keys which the main thread may modify, so it is only used for storage types which decode
+ * NPCs from their own buffers; see {@link SQLiteNPCDataStore#parseAll()} and {@link BinaryStorage#createParser()}.
+ */
+public class BatchedNPCLoader extends BukkitRunnable {
+    private final long budgetNanos;
+    private final Runnable callback;
+    private boolean finished;
+    private int index;
+    private final Record record;
+    private final NPCRegistry registry;
+    private boolean started;
+    private volatile boolean stopped;
+    private List<StoredNPC> stored;
+
+    private BatchedNPCLoader(NPCRegistry registry, long budgetNanos, Record record, Runnable callback) {
+        this.registry = registry;
+        this.record = record;
+        this.budgetNanos = budgetNanos;
+        this.callback = callback;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long deadline = start + budgetNanos;
+        while (index < stored.size()) {
+            StoredNPC next = stored.get(index++);
+            try {
+                NPCDataLoader.load(registry, next);
+            } catch (Throwable t) {
+                Messaging.severe("Unable to load NPC", next.getId());
+                t.printStackTrace();
+            }
+            if (System.nanoTime() >= deadline) {
+                record.addMainThreadTime(System.nanoTime() - start);
+                return;
+            }
+        }
+        record.addMainThreadTime(System.nanoTime() - start);
+        finished = true;
+        cancel();
+        callback.run();
+    }
+
+    private void start(Plugin plugin, List<StoredNPC> stored) {
+        if (stopped)
+            return;
+        this.stored = stored;
+        started = true;
+        runTaskTimer(plugin, 0, 1);
+    }
+
+    /**
+     * Stops loading, leaving the NPCs loaded so far in the registry. The callback is not called. Must be called on the
+     * main thread.
+     */
+    public void stop() {
+        stopped = true;
+        if (started && !finished) {
+            cancel();
+        }
+    }
+
+    /**
+     * Parses the stored NPCs off the main thread, then loads them into the registry over as many ticks as needed.
+     *
+     * @param parser
+     *            Decodes and parses the stored NPCs, called off the main thread
+     * @param budgetMs
+     *            The maximum time to spend loading NPCs each tick
+     * @param record
+     *            Where to record the time spent on the main thread
+     * @param callback
+     *            Called on the main thread once every NPC has been loaded
+     * @return the loader, which can be stopped until the callback has been called
+     */
+    public static BatchedNPCLoader load(Plugin plugin, NPCRegistry registry, Supplier<List<StoredNPC>> parser,
+            long budgetMs, Record record, Runnable callback) {
+        BatchedNPCLoader loader = new BatchedNPCLoader(registry, TimeUnit.MILLISECONDS.toNanos(budgetMs), record,
+                callback);
+        CompletableFuture.supplyAsync(parser, ForkJoinPool.commonPool()).whenComplete((stored, error) -> {
+            if (loader.stopped)
+                return;
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                if (error != null) {
+                    Messaging.severe("Unable to load NPCs:");
+                    error.printStackTrace();
+                    loader.start(plugin, Collections.<StoredNPC> emptyList());
+                } else {
+                    loader.start(plugin, stored);
+                }
+            });
+        });
+        return loader;
+    }
+}
@@ -0,0 +1,531 @@
+package net.citizensnpcs.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.serialization.ConfigurationSerializable;
+import org.bukkit.configuration.serialization.ConfigurationSerialization;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.MemoryDataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.storage.NPCDataLoader.StoredNPC;
+
+/**
+ * A {@link Storage} saved in a compact binary format instead of YAML or NBT.
+ *
+ * The file starts with a table of every key and string value, followed by an index of sections: one for each child of
+ * the <code>npc</code> key and one for everything else. Each entry in the index stores the offset and length of the
+ * section, so a single NPC can be decoded without reading the rest of the file. Values are written as a one byte tag
+ * followed by the value, with strings written as indexes into the string table.
+ *
+ * Files are read into a heap buffer in one go rather than mapped, so no handle to the file is held while it is
+ * replaced by a later save. Loading only decodes the section holding everything other than NPCs; each NPC's section is
+ * decoded from the buffer the first time a key under <code>npc.&lt;id&gt;</code> is requested, and every remaining
+ * section is decoded when a broader key is requested or the storage is saved.
+ */
+public class BinaryStorage implements Storage {
+    private final File file;
+    // the file contents, kept until every NPC section has been decoded
+    private Header header;
+    private MemoryDataKey root = new MemoryDataKey();
+    private final Map<String, Integer> undecoded = Maps.newHashMap();
+
+    public BinaryStorage(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Replaces the contents of this storage with a copy of the given storage, for migrating between storage types.
+     */
+    public void copyFrom(Storage other) {
+        header = null;
+        undecoded.clear();
+        root = new MemoryDataKey();
+        set(root, other.getKey("").getValuesDeep());
+    }
+
+    /**
+     * Creates a parser of the stored NPCs which can run off the main thread. NPC sections which haven't been decoded
+     * yet are decoded by the parser into detached keys straight from the file contents, so the storage itself is never
+     * touched off the main thread; sections which have already been decoded are parsed before returning.
+     *
+     * @return a parser returning the parsed NPCs ordered by id, skipping invalid NPCs
+     */
+    public Supplier<List<StoredNPC>> createParser() {
+        List<StoredNPC> parsed = Lists.newArrayList();
+        for (DataKey key : root.getRelative(NPC_ROOT).getIntegerSubKeys()) {
+            StoredNPC stored = NPCDataLoader.parse(Integer.parseInt(key.name()), key);
+            if (stored != null) {
+                parsed.add(stored);
+            }
+        }
+        Header header = this.header;
+        Map<String, Integer> sections = Maps.newHashMap(undecoded);
+        return () -> {
+            List<StoredNPC> result = sections.entrySet().parallelStream().map(section -> {
+                int id;
+                try {
+                    id = Integer.parseInt(section.getKey());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+                DataKey key = new MemoryDataKey().getRelative(section.getKey());
+                try {
+                    set(key, header.decodeSection(section.getValue()));
+                } catch (IOException e) {
+                    Messaging.severe("Unable to decode NPC", id);
+                    e.printStackTrace();
+                    return null;
+                }
+                return NPCDataLoader.parse(id, key);
+            }).filter(Objects::nonNull).collect(Collectors.toCollection(ArrayList::new));
+            result.addAll(parsed);
+            result.sort(Comparator.comparingInt(StoredNPC::getId));
+            return result;
+        };
+    }
+
+    private void decode(String id, int index) {
+        try {
+            set(root.getRelative(NPC_ROOT + "." + id), header.decodeSection(index));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to decode NPC " + id + " from " + file.getName(), e);
+        }
+    }
+
+    /**
+     * Decodes the NPC sections needed to read the given path.
+     */
+    private void decodeFor(String path) {
+        if (undecoded.isEmpty())
+            return;
+        if (path.startsWith(NPC_ROOT + ".")) {
+            String id = path.substring(NPC_ROOT.length() + 1);
+            if (id.indexOf('.') != -1) {
+                id = id.substring(0, id.indexOf('.'));
+            }
+            Integer index = undecoded.remove(id);
+            if (index != null) {
+                decode(id, index);
+            }
+        } else if (path.isEmpty() || path.equals(NPC_ROOT)) {
+            for (Map.Entry<String, Integer> entry : undecoded.entrySet()) {
+                decode(entry.getKey(), entry.getValue());
+            }
+            undecoded.clear();
+        }
+        if (undecoded.isEmpty()) {
+            header = null;
+        }
+    }
+
+    @Override
+    public DataKey getKey(String path) {
+        decodeFor(path);
+        return path.isEmpty() ? root : root.getRelative(path);
+    }
+
+    @Override
+    public boolean load() {
+        header = null;
+        undecoded.clear();
+        root = new MemoryDataKey();
+        if (!file.exists())
+            return true;
+        try {
+            Header loaded = readHeader(file);
+            for (int i = 0; i < loaded.sections.length; i++) {
+                if (loaded.sections[i].name == null) {
+                    set(root, loaded.decodeSection(i));
+                } else {
+                    undecoded.put(loaded.sections[i].name, i);
+                }
+            }
+            header = undecoded.isEmpty() ? null : loaded;
+            return true;
+        } catch (Exception e) {
+            Messaging.severe("Unable to load " + file.getName() + ":");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public void save() {
+        try {
+            write(file, getKey("").getValuesDeep());
+        } catch (IOException e) {
+            Messaging.severe("Unable to save " + file.getName() + ":");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BinaryStorage {file=" + file + "}";
+    }
+
+    private static class Header {
+        private ByteBuffer buffer;
+        private int payloadStart;
+        private Section[] sections;
+        private String[] strings;
+
+        /**
+         * Decodes a single section. Sections can be decoded concurrently, as each one reads from its own view of the
+         * buffer, limited to the stored length of the section.
+         */
+        private Map<String, Object> decodeSection(int index) throws IOException {
+            Section section = sections[index];
+            long end = (long) payloadStart + section.offset + section.length;
+            if (section.offset < 0 || section.length < 0 || end > this.buffer.capacity())
+                throw new IOException("section " + section.name + " is out of bounds");
+            ByteBuffer buffer = this.buffer.duplicate();
+            buffer.limit((int) end);
+            buffer.position(payloadStart + section.offset);
+            Object value;
+            try {
+                value = readValue(buffer);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("section " + section.name + " is truncated", e);
+            }
+            if (!(value instanceof Map))
+                throw new IOException("section " + section.name + " is not a map");
+            if (buffer.hasRemaining())
+                throw new IOException("section " + section.name + " has trailing bytes");
+            @SuppressWarnings("unchecked")
+            Map<String, Object> map = (Map<String, Object>) value;
+            return map;
+        }
+
+        private Object readValue(ByteBuffer buffer) throws IOException {
+            byte tag = buffer.get();
+            switch (tag) {
+                case TAG_MAP:
+                case TAG_SERIALIZABLE: {
+                    int size = buffer.getInt();
+                    Map<String, Object> map = new LinkedHashMap<String, Object>(size * 2);
+                    for (int i = 0; i < size; i++) {
+                        String key = strings[buffer.getInt()];
+                        map.put(key, readValue(buffer));
+                    }
+                    return tag == TAG_MAP ? map : ConfigurationSerialization.deserializeObject(map);
+                }
+                case TAG_LIST: {
+                    int size = buffer.getInt();
+                    List<Object> list = new ArrayList<Object>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue(buffer));
+                    }
+                    return list;
+                }
+                case TAG_STRING:
+                    return strings[buffer.getInt()];
+                case TAG_INT:
+                    return buffer.getInt();
+                case TAG_LONG:
+                    return buffer.getLong();
+                case TAG_DOUBLE:
+                    return buffer.getDouble();
+                case TAG_FLOAT:
+                    return buffer.getFloat();
+                case TAG_BYTE:
+                    return buffer.get();
+                case TAG_SHORT:
+                    return buffer.getShort();
+                case TAG_TRUE:
+                    return true;
+                case TAG_FALSE:
+                    return false;
+                case TAG_BYTE_ARRAY: {
+                    byte[] array = new byte[buffer.getInt()];
+                    buffer.get(array);
+                    return array;
+                }
+                case TAG_INT_ARRAY: {
+                    int[] array = new int[buffer.getInt()];
+                    buffer.asIntBuffer().get(array);
+                    buffer.position(buffer.position() + array.length * 4);
+                    return array;
+                }
+                case TAG_LONG_ARRAY: {
+                    long[] array = new long[buffer.getInt()];
+                    buffer.asLongBuffer().get(array);
+                    buffer.position(buffer.position() + array.length * 8);
+                    return array;
+                }
+                case TAG_UUID:
+                    return new UUID(buffer.getLong(), buffer.getLong());
+                default:
+                    throw new IOException("unknown tag " + tag);
+            }
+        }
+    }
+
+    private static class Section {
+        private final int length;
+        private final String name;
+        private final int offset;
+
+        private Section(String name, int offset, int length) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Writer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final List<Section> sections = new ArrayList<Section>();
+        private final Map<String, Integer> strings = Maps.newLinkedHashMap();
+
+        private int intern(String string) {
+            Integer index = strings.get(string);
+            if (index == null) {
+                strings.put(string, index = strings.size());
+            }
+            return index;
+        }
+
+        private void writeSection(String name, Map<String, Object> values) throws IOException {
+            if (name != null) {
+                // the string table is written before the section index
+                intern(name);
+            }
+            int offset = out.size();
+            writeValue(values);
+            sections.add(new Section(name, offset, out.size() - offset));
+        }
+
+        private void writeTo(OutputStream output) throws IOException {
+            try (DataOutputStream stream = new DataOutputStream(output)) {
+                stream.writeInt(MAGIC);
+                stream.writeInt(VERSION);
+                stream.writeInt(strings.size());
+                for (String string : strings.keySet()) {
+                    byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+                    stream.writeInt(encoded.length);
+                    stream.write(encoded);
+                }
+                stream.writeInt(sections.size());
+                for (Section section : sections) {
+                    stream.writeInt(section.name == null ? -1 : intern(section.name));
+                    stream.writeInt(section.offset);
+                    stream.writeInt(section.length);
+                }
+                bytes.writeTo(stream);
+            }
+        }
+
+        private void writeMap(byte tag, Map<?, ?> map) throws IOException {
+            out.writeByte(tag);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                out.writeInt(intern(String.valueOf(entry.getKey())));
+                writeValue(entry.getValue());
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value instanceof ConfigurationSection) {
+                writeMap(TAG_MAP, ((ConfigurationSection) value).getValues(false));
+            } else if (value instanceof Map) {
+                writeMap(TAG_MAP, (Map<?, ?>) value);
+            } else if (value instanceof Collection) {
+                Collection<?> list = (Collection<?>) value;
+                out.writeByte(TAG_LIST);
+                out.writeInt(list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Integer) {
+                out.writeByte(TAG_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TAG_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Double) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Byte) {
+                out.writeByte(TAG_BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Short) {
+                out.writeByte(TAG_SHORT);
+                out.writeShort((Short) value);
+            } else if (value instanceof ConfigurationSerializable) {
+                Map<String, Object> serialized = new LinkedHashMap<String, Object>();
+                serialized.put(ConfigurationSerialization.SERIALIZED_TYPE_KEY,
+                        ConfigurationSerialization.getAlias(((ConfigurationSerializable) value).getClass()));
+                serialized.putAll(((ConfigurationSerializable) value).serialize());
+                writeMap(TAG_SERIALIZABLE, serialized);
+            } else if (value instanceof String) {
+                out.writeByte(TAG_STRING);
+                out.writeInt(intern((String) value));
+            } else if (value instanceof byte[]) {
+                out.writeByte(TAG_BYTE_ARRAY);
+                out.writeInt(((byte[]) value).length);
+                out.write((byte[]) value);
+            } else if (value instanceof int[]) {
+                out.writeByte(TAG_INT_ARRAY);
+                out.writeInt(((int[]) value).length);
+                for (int element : (int[]) value) {
+                    out.writeInt(element);
+                }
+            } else if (value instanceof long[]) {
+                out.writeByte(TAG_LONG_ARRAY);
+                out.writeInt(((long[]) value).length);
+                for (long element : (long[]) value) {
+                    out.writeLong(element);
+                }
+            } else if (value instanceof UUID) {
+                out.writeByte(TAG_UUID);
+                out.writeLong(((UUID) value).getMostSignificantBits());
+                out.writeLong(((UUID) value).getLeastSignificantBits());
+            } else {
+                // fail rather than silently changing the type of the value
+                throw new IOException("unsupported value type " + (value == null ? null : value.getClass().getName()));
+            }
+        }
+    }
+
+    /**
+     * Decodes values encoded using {@link #encode(Map)}.
+     */
+    public static Map<String, Object> decode(byte[] bytes) throws IOException {
+        return readHeader(ByteBuffer.wrap(bytes)).decodeSection(0);
+    }
+
+    /**
+     * Encodes the given values into a standalone byte array, using the same format as a storage file with a single
+     * section.
+     */
+    public static byte[] encode(Map<String, Object> values) throws IOException {
+        Writer writer = new Writer();
+        writer.writeSection(null, values);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    private static Header readHeader(ByteBuffer buffer) throws IOException {
+        Header header = new Header();
+        header.buffer = buffer;
+        if (buffer.getInt() != MAGIC)
+            throw new IOException("not a Citizens binary storage file");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("unsupported binary storage version " + version);
+        header.strings = new String[buffer.getInt()];
+        for (int i = 0; i < header.strings.length; i++) {
+            byte[] encoded = new byte[buffer.getInt()];
+            buffer.get(encoded);
+            header.strings[i] = new String(encoded, StandardCharsets.UTF_8);
+        }
+        header.sections = new Section[buffer.getInt()];
+        for (int i = 0; i < header.sections.length; i++) {
+            int name = buffer.getInt();
+            header.sections[i] = new Section(name == -1 ? null : header.strings[name], buffer.getInt(),
+                    buffer.getInt());
+        }
+        header.payloadStart = buffer.position();
+        return header;
+    }
+
+    private static Header readHeader(File file) throws IOException {
+        return readHeader(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+    }
+
+    @SuppressWarnings("unchecked")
+    static void set(DataKey key, Map<String, Object> values) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (entry.getValue() instanceof Map && !((Map<?, ?>) entry.getValue()).isEmpty()) {
+                set(key.getRelative(entry.getKey()), (Map<String, Object>) entry.getValue());
+            } else {
+                key.setRaw(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes the given values to a file in the binary storage format.
+     */
+    @SuppressWarnings("unchecked")
+    public static void write(File file, Map<String, Object> values) throws IOException {
+        Writer writer = new Writer();
+        Map<String, Object> rest = new LinkedHashMap<String, Object>(values);
+        Map<String, Map<String, Object>> npcs = new LinkedHashMap<String, Map<String, Object>>();
+        if (rest.get(NPC_ROOT) instanceof Map) {
+            Map<String, Object> other = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) rest.get(NPC_ROOT)).entrySet()) {
+                if (entry.getValue() instanceof Map) {
+                    npcs.put(entry.getKey(), (Map<String, Object>) entry.getValue());
+                } else {
+                    other.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (other.isEmpty()) {
+                rest.remove(NPC_ROOT);
+            } else {
+                rest.put(NPC_ROOT, other);
+            }
+        }
+        writer.writeSection(null, rest);
+        for (Map.Entry<String, Map<String, Object>> entry : npcs.entrySet()) {
+            writer.writeSection(entry.getKey(), entry.getValue());
+        }
+        writer.writeTo(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    private static final int MAGIC = 0x4354424E; // CTBN
+    private static final String NPC_ROOT = "npc";
+    private static final byte TAG_BYTE = 9;
+    private static final byte TAG_BYTE_ARRAY = 12;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_FALSE = 8;
+    private static final byte TAG_FLOAT = 6;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_INT_ARRAY = 13;
+    private static final byte TAG_LIST = 1;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_LONG_ARRAY = 14;
+    private static final byte TAG_MAP = 0;
+    private static final byte TAG_SERIALIZABLE = 11;
+    private static final byte TAG_SHORT = 10;
+    private static final byte TAG_STRING = 2;
+    private static final byte TAG_TRUE = 7;
+    private static final byte TAG_UUID = 15;
+    private static final int VERSION = 1;
+}
@@ -0,0 +1,234 @@
+package net.citizensnpcs.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.npc.NPCDataStore;
+import net.citizensnpcs.api.npc.NPCRegistry;
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.storage.AsyncStorageWriter.SaveTarget;
+import net.citizensnpcs.storage.NPCJournal.Record;
+
+/**
+ * Wraps a data store backed by a {@link Storage} tree so that saving appends the NPCs stored since the last save to an
+ * {@link NPCJournal}, instead of rewriting the whole storage file.
+ *
+ * Once the journal grows past a size limit, or every NPC is stored at once, it is compacted: a snapshot of the storage
+ * is written and the journal is truncated on the storage writer thread once the snapshot has been written. If the
+ * snapshot can't be written the journal is kept, and the NPCs stored before it are appended or compacted again on the
+ * next save. On load and reload the journal is replayed on top of the last snapshot.
+ */
+public class JournalNPCDataStore implements NPCDataStore {
+    private boolean compact;
+    private final long compactSize;
+    // the NPCs stored since the last save when the snapshot being written was taken
+    private Map<Integer, Boolean> compacted;
+    private long compactedSize;
+    // whether the snapshot was written and the journal truncated, null if no snapshot is being written
+    private CompletableFuture<Boolean> compaction;
+    private final NPCDataStore delegate;
+    private final NPCJournal journal;
+    private final File journalFile;
+    private long journalSize;
+    // true for NPCs that were stored, false for NPCs that were removed
+    private final Map<Integer, Boolean> pending = new LinkedHashMap<Integer, Boolean>();
+    private final Storage storage;
+    private final SaveTarget target;
+    private final AsyncStorageWriter writer;
+
+    private JournalNPCDataStore(NPCDataStore delegate, Storage storage, SaveTarget target, File journalFile,
+            long compactSize, AsyncStorageWriter writer) {
+        this.delegate = delegate;
+        this.storage = storage;
+        this.target = target;
+        this.journalFile = journalFile;
+        this.journal = new NPCJournal(journalFile);
+        this.compactSize = compactSize;
+        this.writer = writer;
+    }
+
+    @Override
+    public void clearData(NPC npc) {
+        delegate.clearData(npc);
+        pending.put(npc.getId(), false);
+    }
+
+    /**
+     * Closes the journal file. Must be called after the storage writer has been shut down.
+     */
+    public void close() {
+        journal.close();
+    }
+
+    private void compact() {
+        CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+        compaction = result;
+        compacted = new LinkedHashMap<Integer, Boolean>(pending);
+        compactedSize = journalSize;
+        compact = false;
+        pending.clear();
+        writer.save(target, written -> {
+            if (!written) {
+                result.complete(false);
+                return;
+            }
+            try {
+                // runs before any records appended after the snapshot was taken
+                journal.truncate();
+                result.complete(true);
+            } catch (IOException e) {
+                // replaying the old records would overwrite the newer snapshot, so compact again
+                Messaging.severe("Unable to truncate " + journalFile.getName() + ":");
+                e.printStackTrace();
+                result.complete(false);
+            }
+        });
+    }
+
+    @Override
+    public int createUniqueNPCId(NPCRegistry registry) {
+        return delegate.createUniqueNPCId(registry);
+    }
+
+    /**
+     * Updates the journal state once the snapshot being written has been written or has failed.
+     */
+    private void finishCompaction() {
+        if (compaction == null || !compaction.isDone())
+            return;
+        if (compaction.join()) {
+            journalSize -= compactedSize;
+        } else {
+            // NPCs stored again since are newer than the snapshot
+            for (Map.Entry<Integer, Boolean> entry : compacted.entrySet()) {
+                pending.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            compact = true;
+        }
+        compaction = null;
+        compacted = null;
+    }
+
+    @Override
+    public void loadInto(NPCRegistry registry) {
+        delegate.loadInto(registry);
+    }
+
+    /**
+     * Reloads the last snapshot and replays the journal on top of it. Saves which are still being written should be
+     * awaited first.
+     */
+    @Override
+    public void reloadFromSource() {
+        delegate.reloadFromSource();
+        pending.clear();
+        compaction = null;
+        compacted = null;
+        replay();
+    }
+
+    private void replay() {
+        try {
+            long valid = NPCJournal.replay(journalFile, storage.getKey("npc"));
+            if (valid > 0) {
+                // fold the replayed records into a snapshot before appending anything after them
+                compact = true;
+            }
+            if (valid < journalFile.length()) {
+                // cut off the incomplete record, otherwise every record appended after it would be ignored
+                journal.truncate(valid);
+            }
+        } catch (IOException e) {
+            Messaging.severe("Unable to replay " + journalFile.getName() + ":");
+            e.printStackTrace();
+        }
+        journalSize = journalFile.length();
+    }
+
+    /**
+     * Appends the NPCs stored since the last save to the journal on the storage writer thread, or compacts the journal
+     * if needed and no snapshot is still being written.
+     */
+    @Override
+    public void saveToDisk() {
+        finishCompaction();
+        if (compaction == null && (compact || journalSize >= compactSize)) {
+            compact();
+            return;
+        }
+        if (pending.isEmpty())
+            return;
+        List<Record> records = new ArrayList<Record>(pending.size());
+        for (Map.Entry<Integer, Boolean> entry : pending.entrySet()) {
+            DataKey key = storage.getKey("npc." + entry.getKey());
+            if (!entry.getValue() || !storage.getKey("npc").keyExists(entry.getKey().toString())) {
+                records.add(Record.remove(entry.getKey()));
+                continue;
+            }
+            try {
+                records.add(Record.store(entry.getKey(), BinaryStorage.encode(key.getValuesDeep())));
+            } catch (IOException e) {
+                Messaging.severe("Unable to encode NPC", entry.getKey());
+                e.printStackTrace();
+            }
+        }
+        pending.clear();
+        for (Record record : records) {
+            journalSize += record.size();
+        }
+        writer.execute(() -> {
+            try {
+                journal.append(records);
+            } catch (IOException e) {
+                Messaging.severe("Unable to append to " + journalFile.getName() + ":");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public void saveToDiskImmediate() {
+        writer.awaitCompletion();
+        finishCompaction();
+        compact();
+        writer.awaitCompletion();
+        finishCompaction();
+    }
+
+    @Override
+    public void store(NPC npc) {
+        delegate.store(npc);
+        pending.put(npc.getId(), true);
+    }
+
+    @Override
+    public void storeAll(NPCRegistry registry) {
+        delegate.storeAll(registry);
+        // appending every NPC would be as large as a snapshot, so write one instead
+        compact = true;
+    }
+
+    /**
+     * Wraps the data store and replays any existing journal into its storage.
+     *
+     * @param delegate
+     *            The data store, which must store NPCs under the <code>npc</code> key of the storage
+     * @param compactSizeKb
+     *            The journal size after which it is folded into a new snapshot
+     */
+    public static JournalNPCDataStore open(NPCDataStore delegate, Storage storage, SaveTarget target,
+            File journalFile, long compactSizeKb, AsyncStorageWriter writer) {
+        JournalNPCDataStore store = new JournalNPCDataStore(delegate, storage, target, journalFile,
+                compactSizeKb * 1024, writer);
+        store.replay();
+        return store;
+    }
+}
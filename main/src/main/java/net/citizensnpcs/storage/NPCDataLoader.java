@@ -0,0 +1,85 @@
+package net.citizensnpcs.storage;
+
+import java.util.UUID;
+
+import org.bukkit.entity.EntityType;
+
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.npc.NPCRegistry;
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.util.Messages;
+import net.citizensnpcs.util.Util;
+
+/**
+ * Creates NPCs from their stored data, for data stores and loaders that load NPCs individually.
+ */
+public class NPCDataLoader {
+    private NPCDataLoader() {
+    }
+
+    /**
+     * Creates an NPC in the registry and loads it from the given key.
+     *
+     * @return the NPC, or null if the stored data is invalid
+     */
+    public static NPC load(NPCRegistry registry, int id, DataKey key) {
+        StoredNPC stored = parse(id, key);
+        return stored == null ? null : load(registry, stored);
+    }
+
+    /**
+     * Creates an NPC in the registry from data parsed by {@link #parse(int, DataKey)}. Must be called on the main
+     * thread.
+     */
+    public static NPC load(NPCRegistry registry, StoredNPC stored) {
+        NPC npc = registry.createNPC(stored.type, stored.uuid, stored.id, stored.name);
+        npc.load(stored.key);
+        return npc;
+    }
+
+    /**
+     * Reads the values needed to create an NPC from its stored data, without touching the registry. Safe to call off
+     * the main thread as long as the key isn't modified concurrently.
+     *
+     * @return the parsed data, or null if the stored data is invalid
+     */
+    public static StoredNPC parse(int id, DataKey key) {
+        if (!key.keyExists("name")) {
+            Messaging.logTr(Messages.LOAD_NAME_NOT_FOUND, id);
+            return null;
+        }
+        String unparsedType = key.getString("traits.type", "PLAYER");
+        EntityType type = Util.matchEnum(EntityType.values(), unparsedType);
+        if (type == null) {
+            Messaging.logTr(Messages.LOAD_UNKNOWN_NPC_TYPE, unparsedType);
+            return null;
+        }
+        String uuid = key.getString("uuid", "");
+        return new StoredNPC(id, key, key.getString("name"), type,
+                uuid.isEmpty() ? UUID.randomUUID() : UUID.fromString(uuid));
+    }
+
+    /**
+     * The stored data of an NPC which hasn't been created yet.
+     */
+    public static class StoredNPC {
+        private final int id;
+        private final DataKey key;
+        private final String name;
+        private final EntityType type;
+        private final UUID uuid;
+
+        private StoredNPC(int id, DataKey key, String name, EntityType type, UUID uuid) {
+            this.id = id;
+            this.key = key;
+            this.name = name;
+            this.type = type;
+            this.uuid = uuid;
+        }
+
+        public int getId() {
+            return id;
+        }
+    }
+}
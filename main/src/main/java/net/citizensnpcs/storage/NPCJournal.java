@@ -0,0 +1,176 @@
+package net.citizensnpcs.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.Messaging;
+
+/**
+ * An append-only log of NPC changes, written through a buffered {@link FileChannel}.
+ *
+ * Each record holds the complete stored data of one NPC, or marks the NPC as removed, so replaying a record is
+ * idempotent and only the last record of each NPC matters. Records are checksummed: a record that was only partially
+ * written before a crash ends the replay instead of failing it.
+ *
+ * Apart from {@link #replay(File, DataKey)}, the methods of this class must only be called from one thread at a time.
+ */
+public class NPCJournal {
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private FileChannel channel;
+    private final File file;
+
+    public NPCJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Appends the records and flushes them to the disk.
+     */
+    public void append(List<Record> records) throws IOException {
+        FileChannel channel = open();
+        CRC32 crc = new CRC32();
+        for (Record record : records) {
+            byte[] data = record.data == null ? new byte[0] : record.data;
+            crc.reset();
+            crc.update(data);
+            if (buffer.remaining() < RECORD_HEADER_SIZE) {
+                flush(channel);
+            }
+            buffer.put(record.data == null ? OP_REMOVE : OP_STORE);
+            buffer.putInt(record.id);
+            buffer.putInt(data.length);
+            buffer.putInt((int) crc.getValue());
+            for (int written = 0; written < data.length;) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel);
+                }
+                int length = Math.min(buffer.remaining(), data.length - written);
+                buffer.put(data, written, length);
+                written += length;
+            }
+        }
+        flush(channel);
+        channel.force(false);
+    }
+
+    public void close() {
+        if (channel == null)
+            return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    private void flush(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private FileChannel open() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    /**
+     * Discards every record, once they have been folded into a snapshot.
+     */
+    public void truncate() throws IOException {
+        truncate(0);
+    }
+
+    /**
+     * Discards everything after the given length of the journal, such as an incomplete record found by
+     * {@link #replay(File, DataKey)}, so that new records are appended straight after the last complete one.
+     */
+    public void truncate(long length) throws IOException {
+        open().truncate(length);
+        channel.force(true);
+    }
+
+    /**
+     * A change to a single NPC.
+     */
+    public static class Record {
+        private final byte[] data;
+        private final int id;
+
+        private Record(int id, byte[] data) {
+            this.id = id;
+            this.data = data;
+        }
+
+        public int size() {
+            return RECORD_HEADER_SIZE + (data == null ? 0 : data.length);
+        }
+
+        public static Record remove(int id) {
+            return new Record(id, null);
+        }
+
+        /**
+         * @param data
+         *            The NPC's stored data, encoded using {@link BinaryStorage#encode(java.util.Map)}
+         */
+        public static Record store(int id, byte[] data) {
+            return new Record(id, data);
+        }
+    }
+
+    /**
+     * Applies every complete record in the journal file to the NPCs stored under the given key.
+     *
+     * @return the length of the journal up to the end of the last complete record
+     */
+    public static long replay(File file, DataKey root) throws IOException {
+        if (!file.exists())
+            return 0;
+        long valid = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (journal.remaining() >= RECORD_HEADER_SIZE) {
+                byte op = journal.get();
+                int id = journal.getInt();
+                int length = journal.getInt();
+                int checksum = journal.getInt();
+                if ((op != OP_STORE && op != OP_REMOVE) || length < 0 || length > journal.remaining())
+                    break;
+                byte[] data = new byte[length];
+                journal.get(data);
+                crc.reset();
+                crc.update(data);
+                if ((int) crc.getValue() != checksum)
+                    break;
+                root.removeKey(Integer.toString(id));
+                if (op == OP_STORE) {
+                    BinaryStorage.set(root.getRelative(Integer.toString(id)), BinaryStorage.decode(data));
+                }
+                valid = journal.position();
+            }
+            if (journal.hasRemaining()) {
+                Messaging.severe("Ignored incomplete record at the end of " + file.getName());
+            }
+        }
+        return valid;
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte OP_REMOVE = 1;
+    private static final byte OP_STORE = 0;
+    private static final int RECORD_HEADER_SIZE = 13;
+}
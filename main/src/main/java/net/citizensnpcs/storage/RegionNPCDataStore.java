@@ -0,0 +1,282 @@
+package net.citizensnpcs.storage;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.npc.NPCDataStore;
+import net.citizensnpcs.api.npc.NPCRegistry;
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.MemoryDataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.NBTStorage;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.api.util.YamlStorage;
+import net.citizensnpcs.storage.AsyncStorageWriter.SaveTarget;
+
+/**
+ * An {@link NPCDataStore} which shards NPCs into one file per world and 32x32 chunk region, next to a small index file
+ * holding the id, UUID, name, owner and location of every stored NPC. A region file is only read the first time one of
+ * its NPCs is needed, so when NPCs are loaded lazily only the index is read at startup. NPCs without a stored location
+ * are kept in a separate <code>unplaced</code> file.
+ *
+ * Index and region files use the configured storage type, and are written on the {@link AsyncStorageWriter} thread.
+ * Saving only writes the files of regions whose NPCs have been stored since the last save.
+ */
+public class RegionNPCDataStore implements NPCDataStore {
+    private final Set<String> changed = Sets.newHashSet();
+    private final File folder;
+    private Storage index;
+    private boolean indexChanged;
+    private int lastId;
+    private final TIntObjectHashMap<String> regionOf = new TIntObjectHashMap<String>();
+    private final Map<String, Storage> regions = Maps.newHashMap();
+    private final String type;
+    private final Set<String> unreadable = Sets.newHashSet();
+    private final AsyncStorageWriter writer;
+
+    private RegionNPCDataStore(File folder, String type, AsyncStorageWriter writer) {
+        this.folder = folder;
+        this.type = type;
+        this.writer = writer;
+    }
+
+    @Override
+    public void clearData(NPC npc) {
+        String region = regionOf.remove(npc.getId());
+        if (region == null)
+            return;
+        region(region).getKey(NPC_ROOT).removeKey(Integer.toString(npc.getId()));
+        changed.add(region);
+        index.getKey(NPC_ROOT).removeKey(Integer.toString(npc.getId()));
+        indexChanged = true;
+    }
+
+    private Storage create(File file) {
+        if (type.equalsIgnoreCase("binary"))
+            return new BinaryStorage(file);
+        if (type.equalsIgnoreCase("nbt"))
+            return new NBTStorage(file, HEADER);
+        return new YamlStorage(file, HEADER);
+    }
+
+    @Override
+    public int createUniqueNPCId(NPCRegistry registry) {
+        int id = lastId;
+        while (regionOf.containsKey(id) || registry.getById(id) != null) {
+            id++;
+        }
+        lastId = id + 1;
+        return id;
+    }
+
+    private File file(String name) {
+        return new File(folder, name + "." + getExtension());
+    }
+
+    private String getExtension() {
+        if (type.equalsIgnoreCase("binary"))
+            return "bin";
+        return type.equalsIgnoreCase("nbt") ? "nbt" : "yml";
+    }
+
+    /**
+     * @return the index, holding one key per stored NPC with the same <code>name</code>, <code>uuid</code>,
+     *         <code>traits.location</code> and <code>traits.owner.uuid</code> values as its full stored data
+     */
+    public DataKey getIndex() {
+        return index.getKey(NPC_ROOT);
+    }
+
+    /**
+     * Returns the full stored data of an NPC, reading its region file if it hasn't been read yet.
+     *
+     * @return the stored data, or null if the NPC isn't stored or its region file couldn't be read
+     */
+    public DataKey getKey(int id) {
+        String region = regionOf.get(id);
+        if (region == null)
+            return null;
+        Storage storage = region(region);
+        return unreadable.contains(file(region).getName()) ? null : storage.getKey(NPC_ROOT + "." + id);
+    }
+
+    /**
+     * Copies every NPC stored in the given storage into its region, for migrating from a single save file.
+     */
+    public void importFrom(Storage storage) {
+        for (DataKey key : storage.getKey(NPC_ROOT).getIntegerSubKeys()) {
+            put(Integer.parseInt(key.name()), key);
+        }
+    }
+
+    private void loadIndex() {
+        index = open(file(INDEX_NAME));
+        regionOf.clear();
+        for (DataKey key : index.getKey(NPC_ROOT).getIntegerSubKeys()) {
+            regionOf.put(Integer.parseInt(key.name()), key.getString("region"));
+        }
+    }
+
+    @Override
+    public void loadInto(NPCRegistry registry) {
+        int[] ids = regionOf.keys();
+        Arrays.sort(ids);
+        for (int id : ids) {
+            DataKey key = getKey(id);
+            if (key != null) {
+                NPCDataLoader.load(registry, id, key);
+            }
+        }
+    }
+
+    private Storage open(File file) {
+        Storage storage = create(file);
+        if (file.exists() && !storage.load()) {
+            // never overwrite a file which couldn't be read
+            unreadable.add(file.getName());
+            Messaging.severe("Unable to read " + file.getName() + ", NPCs stored in it won't be loaded or saved");
+        }
+        return storage;
+    }
+
+    private void put(int id, DataKey values) {
+        String region = regionName(values);
+        String previous = regionOf.put(id, region);
+        if (previous != null && !previous.equals(region)) {
+            region(previous).getKey(NPC_ROOT).removeKey(Integer.toString(id));
+            changed.add(previous);
+        }
+        Storage storage = region(region);
+        storage.getKey(NPC_ROOT).removeKey(Integer.toString(id));
+        BinaryStorage.set(storage.getKey(NPC_ROOT + "." + id), values.getValuesDeep());
+        changed.add(region);
+
+        index.getKey(NPC_ROOT).removeKey(Integer.toString(id));
+        DataKey entry = index.getKey(NPC_ROOT + "." + id);
+        entry.setString("region", region);
+        for (String path : INDEXED_PATHS) {
+            if (values.keyExists(path)) {
+                entry.setRaw(path, values.getRaw(path));
+            }
+        }
+        indexChanged = true;
+    }
+
+    private Storage region(String name) {
+        Storage storage = regions.get(name);
+        if (storage == null) {
+            regions.put(name, storage = open(file(name)));
+        }
+        return storage;
+    }
+
+    @Override
+    public void reloadFromSource() {
+        regions.clear();
+        changed.clear();
+        unreadable.clear();
+        indexChanged = false;
+        lastId = 0;
+        loadIndex();
+    }
+
+    private void save(String name, Storage storage) {
+        File file = file(name);
+        if (unreadable.contains(file.getName()))
+            return;
+        if (storage instanceof BinaryStorage) {
+            writer.save(SaveTarget.binary(storage, file));
+        } else if (storage instanceof NBTStorage) {
+            writer.save(SaveTarget.nbt(storage, file, HEADER));
+        } else {
+            writer.save(SaveTarget.yaml(storage, file, HEADER));
+        }
+    }
+
+    @Override
+    public void saveToDisk() {
+        for (String region : changed) {
+            save(region, region(region));
+        }
+        changed.clear();
+        if (indexChanged) {
+            save(INDEX_NAME, index);
+            indexChanged = false;
+        }
+    }
+
+    @Override
+    public void saveToDiskImmediate() {
+        saveToDisk();
+        writer.awaitCompletion();
+    }
+
+    @Override
+    public void store(NPC npc) {
+        if (!npc.data().get(NPC.Metadata.SHOULD_SAVE, true))
+            return;
+        DataKey key = new MemoryDataKey().getRelative(Integer.toString(npc.getId()));
+        npc.save(key);
+        put(npc.getId(), key);
+    }
+
+    /**
+     * Stores every loaded NPC. NPCs which haven't been loaded yet keep their stored data.
+     */
+    @Override
+    public void storeAll(NPCRegistry registry) {
+        for (NPC npc : registry) {
+            store(npc);
+        }
+    }
+
+    /**
+     * Opens the region store in the given folder.
+     *
+     * @param type
+     *            The storage type of the index and region files: <code>yaml</code>, <code>nbt</code> or
+     *            <code>binary</code>
+     */
+    public static RegionNPCDataStore open(File folder, String type, AsyncStorageWriter writer) {
+        RegionNPCDataStore store = new RegionNPCDataStore(folder, type, writer);
+        folder.mkdirs();
+        store.loadIndex();
+        return store;
+    }
+
+    /**
+     * @return the name of the region file the NPC with the given stored data belongs in
+     */
+    private static String regionName(DataKey key) {
+        if (!key.keyExists("traits.location.world"))
+            return UNPLACED_NAME;
+        int regionX = ((int) Math.floor(key.getDouble("traits.location.x")) >> 4) >> REGION_SHIFT;
+        int regionZ = ((int) Math.floor(key.getDouble("traits.location.z")) >> 4) >> REGION_SHIFT;
+        return key.getString("traits.location.world") + "/r." + regionX + "." + regionZ;
+    }
+
+    /**
+     * Whether the region store has been created in the given folder.
+     */
+    public static boolean exists(File folder, String type) {
+        return new RegionNPCDataStore(folder, type, null).file(INDEX_NAME).exists();
+    }
+
+    private static final String HEADER = "Citizens NPC Storage";
+    private static final String[] INDEXED_PATHS = { "name", "uuid", "traits.location.world", "traits.location.x",
+            "traits.location.z", "traits.owner.uuid" };
+    private static final String INDEX_NAME = "index";
+    private static final String NPC_ROOT = "npc";
+    /**
+     * The number of bits to shift chunk coordinates by to get region coordinates, making each region 32x32 chunks.
+     */
+    public static final int REGION_SHIFT = 5;
+    private static final String UNPLACED_NAME = "unplaced";
+}
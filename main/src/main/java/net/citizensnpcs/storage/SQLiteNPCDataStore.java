@@ -0,0 +1,242 @@
+package net.citizensnpcs.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.npc.NPCDataStore;
+import net.citizensnpcs.api.npc.NPCRegistry;
+import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.api.util.MemoryDataKey;
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.api.util.Storage;
+import net.citizensnpcs.storage.NPCDataLoader.StoredNPC;
+
+/**
+ * An {@link NPCDataStore} backed by a local SQLite database, using the driver bundled with the server. Each NPC is one
+ * row holding its data encoded with {@link BinaryStorage#encode(Map)}.
+ *
+ * {@link #store(NPC)} and {@link #clearData(NPC)} only queue a row change. Queued changes are written as a single
+ * transaction when the store is saved, so saving only touches the rows of NPCs that were stored since the last save.
+ */
+public class SQLiteNPCDataStore implements NPCDataStore {
+    private final Connection connection;
+    // read when the store is opened, as NPCs may still be loading when new ids are created
+    private final AtomicInteger lastId = new AtomicInteger();
+    // a null value marks a row to delete
+    private Map<Integer, byte[]> pending = new LinkedHashMap<Integer, byte[]>();
+    private final AsyncStorageWriter writer;
+
+    private SQLiteNPCDataStore(Connection connection, AsyncStorageWriter writer) {
+        this.connection = connection;
+        this.writer = writer;
+    }
+
+    @Override
+    public void clearData(NPC npc) {
+        pending.put(npc.getId(), null);
+    }
+
+    public void close() {
+        synchronized (connection) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public int createUniqueNPCId(NPCRegistry registry) {
+        int id = lastId.get();
+        while (registry.getById(id) != null || pending.containsKey(id)) {
+            id++;
+        }
+        lastId.set(id + 1);
+        return id;
+    }
+
+    /**
+     * Queues every NPC stored in the given storage to be inserted, for migrating from another storage type.
+     */
+    public void importFrom(Storage storage) {
+        for (DataKey key : storage.getKey("npc").getIntegerSubKeys()) {
+            try {
+                int id = Integer.parseInt(key.name());
+                pending.put(id, BinaryStorage.encode(key.getValuesDeep()));
+                lastId.accumulateAndGet(id + 1, Math::max);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void loadInto(NPCRegistry registry) {
+        for (StoredNPC stored : parseAll()) {
+            NPCDataLoader.load(registry, stored);
+        }
+    }
+
+    /**
+     * Reads every stored NPC and decodes the rows in parallel. Safe to call off the main thread.
+     *
+     * @return the parsed NPCs ordered by id, skipping invalid NPCs
+     */
+    public List<StoredNPC> parseAll() {
+        Map<Integer, byte[]> rows = new LinkedHashMap<Integer, byte[]>();
+        synchronized (connection) {
+            try (Statement statement = connection.createStatement();
+                    ResultSet result = statement.executeQuery("SELECT id, data FROM npcs ORDER BY id")) {
+                while (result.next()) {
+                    rows.put(result.getInt(1), result.getBytes(2));
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        return rows.entrySet().parallelStream().map(row -> {
+            DataKey key = new MemoryDataKey().getRelative(Integer.toString(row.getKey()));
+            try {
+                BinaryStorage.set(key, BinaryStorage.decode(row.getValue()));
+            } catch (IOException e) {
+                Messaging.severe("Unable to decode NPC", row.getKey());
+                e.printStackTrace();
+                return null;
+            }
+            return NPCDataLoader.parse(row.getKey(), key);
+        }).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * @return one past the highest stored id
+     */
+    private int readNextId() {
+        synchronized (connection) {
+            try (Statement statement = connection.createStatement();
+                    ResultSet result = statement.executeQuery("SELECT MAX(id) FROM npcs")) {
+                // MAX is null for an empty table
+                return result.next() && result.getObject(1) != null ? result.getInt(1) + 1 : 0;
+            } catch (SQLException e) {
+                e.printStackTrace();
+                return 0;
+            }
+        }
+    }
+
+    @Override
+    public void reloadFromSource() {
+        // the database is always read directly, so just discard changes which haven't been saved yet
+        pending = new LinkedHashMap<Integer, byte[]>();
+        lastId.set(readNextId());
+    }
+
+    /**
+     * Writes the queued changes on the storage writer thread.
+     */
+    @Override
+    public void saveToDisk() {
+        if (pending.isEmpty())
+            return;
+        Map<Integer, byte[]> batch = pending;
+        pending = new LinkedHashMap<Integer, byte[]>();
+        writer.execute(() -> write(batch));
+    }
+
+    @Override
+    public void saveToDiskImmediate() {
+        saveToDisk();
+        writer.awaitCompletion();
+    }
+
+    @Override
+    public void store(NPC npc) {
+        if (!npc.data().get(NPC.Metadata.SHOULD_SAVE, true))
+            return;
+        DataKey key = new MemoryDataKey().getRelative(Integer.toString(npc.getId()));
+        npc.save(key);
+        try {
+            pending.put(npc.getId(), BinaryStorage.encode(key.getValuesDeep()));
+        } catch (IOException e) {
+            Messaging.severe("Unable to encode NPC", npc.getId());
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void storeAll(NPCRegistry registry) {
+        for (NPC npc : registry) {
+            store(npc);
+        }
+    }
+
+    private void write(Map<Integer, byte[]> batch) {
+        synchronized (connection) {
+            try {
+                connection.setAutoCommit(false);
+                try (PreparedStatement upsert = connection
+                        .prepareStatement("INSERT OR REPLACE INTO npcs (id, data) VALUES (?, ?)");
+                        PreparedStatement delete = connection.prepareStatement("DELETE FROM npcs WHERE id = ?")) {
+                    for (Map.Entry<Integer, byte[]> entry : batch.entrySet()) {
+                        if (entry.getValue() == null) {
+                            delete.setInt(1, entry.getKey());
+                            delete.addBatch();
+                        } else {
+                            upsert.setInt(1, entry.getKey());
+                            upsert.setBytes(2, entry.getValue());
+                            upsert.addBatch();
+                        }
+                    }
+                    delete.executeBatch();
+                    upsert.executeBatch();
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                Messaging.severe("Unable to save NPCs to the database:");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Opens or creates the database file.
+     *
+     * @return the data store, or null if the database couldn't be opened
+     */
+    public static SQLiteNPCDataStore create(File file, AsyncStorageWriter writer) {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            file.getParentFile().mkdirs();
+            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("CREATE TABLE IF NOT EXISTS npcs (id INTEGER PRIMARY KEY, data BLOB NOT NULL)");
+            }
+            SQLiteNPCDataStore store = new SQLiteNPCDataStore(connection, writer);
+            store.lastId.set(store.readNextId());
+            return store;
+        } catch (ClassNotFoundException | SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package net.citizensnpcs.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+
+import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.util.Messages;
+
+/**
+ * A rolling history of recent saves and loads, with the time each one blocked the main thread, its total time until it
+ * was written, the number of NPCs involved and the number of bytes written.
+ *
+ * Records are started on the main thread and may be completed from the storage writer thread.
+ */
+public class SaveHistory {
+    private final Deque<Record> records = new ArrayDeque<Record>();
+    private volatile long slowSaveNanos;
+
+    /**
+     * Starts a new record, dropping the oldest record if the history is full.
+     */
+    public Record begin(String operation, boolean save) {
+        Record record = new Record(operation, save);
+        synchronized (records) {
+            records.addFirst(record);
+            while (records.size() > MAX_RECORDS) {
+                records.removeLast();
+            }
+        }
+        return record;
+    }
+
+    /**
+     * @return the records, most recent first
+     */
+    public List<Record> getRecords() {
+        synchronized (records) {
+            return Lists.newArrayList(records);
+        }
+    }
+
+    /**
+     * Sets the time after which a completed save is reported as slow, usually the save interval.
+     */
+    public void setSlowSaveThreshold(long duration, TimeUnit unit) {
+        slowSaveNanos = unit.toNanos(duration);
+    }
+
+    public class Record {
+        private final AtomicLong bytes = new AtomicLong(-1);
+        private volatile boolean coalesced;
+        private volatile long completedNanos;
+        private final AtomicLong mainThreadNanos = new AtomicLong();
+        private volatile int npcs = -1;
+        private final String operation;
+        private final boolean save;
+        private final long startedAt = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+
+        private Record(String operation, boolean save) {
+            this.operation = operation;
+            this.save = save;
+        }
+
+        public void addBytes(long written) {
+            bytes.accumulateAndGet(written, (current, add) -> Math.max(current, 0) + add);
+        }
+
+        public void addMainThreadTime(long nanos) {
+            mainThreadNanos.addAndGet(nanos);
+        }
+
+        /**
+         * Marks the record as replaced by a later save of the same data, which will be written instead.
+         */
+        public void coalesce() {
+            coalesced = true;
+            complete();
+        }
+
+        public void complete() {
+            if (completedNanos != 0)
+                return;
+            completedNanos = System.nanoTime();
+            long total = completedNanos - startNanos;
+            if (save && !coalesced && slowSaveNanos > 0 && total > slowSaveNanos) {
+                Messaging.logTr(Messages.SAVE_SLOWER_THAN_INTERVAL, operation,
+                        TimeUnit.NANOSECONDS.toMillis(total), TimeUnit.NANOSECONDS.toMillis(slowSaveNanos));
+            }
+        }
+
+        /**
+         * @return the number of bytes written, or -1 if unknown
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getMainThreadNanos() {
+            return mainThreadNanos.get();
+        }
+
+        /**
+         * @return the number of NPCs saved or loaded, or -1 if not applicable
+         */
+        public int getNPCCount() {
+            return npcs;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        /**
+         * @return the time from the start of the operation until it completed, or until now if it is still in flight
+         */
+        public long getTotalNanos() {
+            return (completedNanos == 0 ? System.nanoTime() : completedNanos) - startNanos;
+        }
+
+        public boolean isCoalesced() {
+            return coalesced;
+        }
+
+        public boolean isComplete() {
+            return completedNanos != 0;
+        }
+
+        public void setNPCCount(int npcs) {
+            this.npcs = npcs;
+        }
+    }
+
+    private static final int MAX_RECORDS = 20;
+}
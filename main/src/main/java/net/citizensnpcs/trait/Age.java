@@ -17,6 +17,7 @@ import net.citizensnpcs.util.Messages;
  * @see Ageable
  */
 @TraitName("age")
+@RunInterval(20)
 public class Age extends Trait implements Toggleable {
     @Persist
     private int age = 0;
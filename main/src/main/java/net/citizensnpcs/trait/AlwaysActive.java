@@ -0,0 +1,15 @@
+package net.citizensnpcs.trait;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link net.citizensnpcs.api.trait.Trait} as needing to run even when no players are nearby. NPCs with an
+ * always active trait never hibernate.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface AlwaysActive {
+}
@@ -6,7 +6,9 @@ import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
 import net.citizensnpcs.api.util.DataKey;
+import net.citizensnpcs.npc.CitizensNPC;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.NPCSpatialIndex;
 
 /**
  * Persists the current {@link Location} of the {@link NPC}. Will cache last known location if despawned.
@@ -46,16 +48,29 @@ public class CurrentLocation extends Trait {
     public void run() {
         if (!npc.isSpawned())
             return;
-        location = npc.getEntity().getLocation(location);
-        bodyYaw = NMS.getYaw(npc.getEntity());
+        Location current = npc.getEntity().getLocation(CACHE_LOCATION);
+        float yaw = NMS.getYaw(npc.getEntity());
+        if (!current.equals(location) || Float.compare(yaw, bodyYaw) != 0) {
+            location = npc.getEntity().getLocation(location);
+            bodyYaw = yaw;
+            if (npc instanceof CitizensNPC) {
+                ((CitizensNPC) npc).markChanged();
+            }
+        }
+        NPCSpatialIndex.update(npc, location);
     }
 
     public void setLocation(Location loc) {
         this.location = loc.clone();
+        if (npc instanceof CitizensNPC) {
+            ((CitizensNPC) npc).markChanged();
+        }
     }
 
     @Override
     public String toString() {
         return "CurrentLocation{" + location + "}";
     }
+
+    private static final Location CACHE_LOCATION = new Location(null, 0, 0, 0);
 }
\ No newline at end of file
@@ -11,6 +11,7 @@ import net.citizensnpcs.util.NMS;
  * Persists {@link Enderman} metadata.
  */
 @TraitName("endermantrait")
+@RunInterval(20)
 public class EndermanTrait extends Trait {
     @Persist("angry")
     private boolean angry;
@@ -13,15 +13,16 @@ import org.bukkit.event.player.PlayerTeleportEvent.TeleportCause;
 
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.ai.flocking.Flocker;
-import net.citizensnpcs.api.ai.flocking.RadiusNPCFlock;
 import net.citizensnpcs.api.ai.flocking.SeparationBehavior;
 import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
+import net.citizensnpcs.npc.ai.NearbyNPCFlock;
 
 /**
  * Persists a {@link Player} to follow while spawned. Optionally allows protecting of the player as well.
  */
+@AlwaysActive
 @TraitName("followtrait")
 public class FollowTrait extends Trait {
     @Persist("active")
@@ -73,7 +74,7 @@ public class FollowTrait extends Trait {
 
     @Override
     public void onSpawn() {
-        flock = new Flocker(npc, new RadiusNPCFlock(4, 0), new SeparationBehavior(1));
+        flock = new Flocker(npc, new NearbyNPCFlock(4), new SeparationBehavior(1));
     }
 
     @Override
@@ -13,6 +13,7 @@ import net.citizensnpcs.api.trait.TraitName;
  * @see Player#setGameMode(GameMode)
  */
 @TraitName("gamemodetrait")
+@RunInterval(20)
 public class GameModeTrait extends Trait {
     @Persist
     private GameMode mode;
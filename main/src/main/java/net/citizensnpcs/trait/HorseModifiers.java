@@ -19,6 +19,7 @@ import net.citizensnpcs.util.NMS;
  * @see Horse
  */
 @TraitName("horsemodifiers")
+@RunInterval(20)
 public class HorseModifiers extends Trait {
     @Persist("armor")
     private ItemStack armor = null;
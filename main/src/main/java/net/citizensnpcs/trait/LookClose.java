@@ -6,7 +6,6 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
 
 import org.bukkit.Bukkit;
 import org.bukkit.GameMode;
@@ -24,6 +23,7 @@ import com.google.common.collect.Sets;
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.event.NPCLookCloseChangeTargetEvent;
+import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
@@ -31,6 +31,7 @@ import net.citizensnpcs.api.util.DataKey;
 import net.citizensnpcs.trait.RotationTrait.PacketRotationSession;
 import net.citizensnpcs.trait.RotationTrait.RotationParams;
 import net.citizensnpcs.util.NMS;
+import net.citizensnpcs.util.NPCSpatialIndex;
 import net.citizensnpcs.util.Util;
 
 /**
@@ -166,11 +167,14 @@ public class LookClose extends Trait implements Toggleable {
 
     private List<Player> getNearbyPlayers() {
         List<Player> options = Lists.newArrayList();
-        Iterable<Player> nearby = targetNPCs
-                ? npc.getEntity().getNearbyEntities(range, range, range).stream()
-                        .filter(e -> e.getType() == EntityType.PLAYER && e.getWorld() == NPC_LOCATION.getWorld())
-                        .map(e -> (Player) e).collect(Collectors.toList())
-                : CitizensAPI.getLocationLookup().getNearbyPlayers(NPC_LOCATION, range);
+        List<Player> nearby = Lists.newArrayList(CitizensAPI.getLocationLookup().getNearbyPlayers(NPC_LOCATION, range));
+        if (targetNPCs) {
+            for (NPC other : NPCSpatialIndex.getNearbyNPCs(NPC_LOCATION, range)) {
+                if (other != npc && other.getEntity().getType() == EntityType.PLAYER) {
+                    nearby.add((Player) other.getEntity());
+                }
+            }
+        }
         for (Player player : nearby) {
             if (player == lookingAt || (!targetNPCs && CitizensAPI.getNPCRegistry().getNPC(player) != null))
                 continue;
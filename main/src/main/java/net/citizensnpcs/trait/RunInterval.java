@@ -0,0 +1,16 @@
+package net.citizensnpcs.trait;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares how often a {@link net.citizensnpcs.api.trait.Trait}'s <code>run()</code> method needs to be called, in
+ * ticks. Traits without this annotation are run every tick.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface RunInterval {
+    int value();
+}
@@ -20,6 +20,7 @@ import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
+import net.citizensnpcs.npc.CitizensNPCRegistry;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.Util;
 
@@ -37,7 +38,10 @@ public class ScoreboardTrait extends Trait {
     public ScoreboardTrait() {
         super("scoreboardtrait");
         metadata = CitizensAPI.getLocationLookup().<Boolean> registerMetadata("scoreboard", (meta, event) -> {
-            for (NPC npc : CitizensAPI.getNPCRegistry()) {
+            Iterable<NPC> npcs = CitizensAPI.getNPCRegistry() instanceof CitizensNPCRegistry
+                    ? ((CitizensNPCRegistry) CitizensAPI.getNPCRegistry()).getNPCsWithTrait(ScoreboardTrait.class)
+                    : CitizensAPI.getNPCRegistry();
+            for (NPC npc : npcs) {
                 ScoreboardTrait trait = npc.getTraitNullable(ScoreboardTrait.class);
                 if (trait == null)
                     continue;
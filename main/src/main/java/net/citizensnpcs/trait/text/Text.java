@@ -30,6 +30,7 @@ import net.citizensnpcs.api.util.Paginator;
 import net.citizensnpcs.api.util.Placeholders;
 import net.citizensnpcs.editor.Editor;
 import net.citizensnpcs.trait.HologramTrait;
+import net.citizensnpcs.trait.RunInterval;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.Util;
 
@@ -37,6 +38,7 @@ import net.citizensnpcs.util.Util;
  * Persists text metadata, i.e. text that will be said by an NPC on certain triggers.
  */
 @TraitName("text")
+@RunInterval(5)
 public class Text extends Trait implements Runnable, Listener {
     private final Map<UUID, Long> cooldowns = Maps.newHashMap();
     private int currentIndex;
@@ -32,10 +32,12 @@ import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.api.util.Placeholders;
+import net.citizensnpcs.trait.RunInterval;
 import net.citizensnpcs.util.NMS;
 import net.citizensnpcs.util.Util;
 
 @TraitName("bossbar")
+@RunInterval(5)
 public class BossBarTrait extends Trait {
     private BossBar barCache;
     @Persist
@@ -14,9 +14,11 @@ import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.trait.RunInterval;
 import net.citizensnpcs.util.Messages;
 
 @TraitName("snowmantrait")
+@RunInterval(20)
 public class SnowmanTrait extends Trait {
     @Persist("derp")
     private boolean derp;
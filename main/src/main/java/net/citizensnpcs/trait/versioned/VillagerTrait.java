@@ -18,11 +18,13 @@ import net.citizensnpcs.api.persistence.Persist;
 import net.citizensnpcs.api.trait.Trait;
 import net.citizensnpcs.api.trait.TraitName;
 import net.citizensnpcs.api.util.Messaging;
+import net.citizensnpcs.trait.RunInterval;
 import net.citizensnpcs.trait.VillagerProfession;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.Util;
 
 @TraitName("villagertrait")
+@RunInterval(20)
 public class VillagerTrait extends Trait {
     @Persist
     private int level = 1;
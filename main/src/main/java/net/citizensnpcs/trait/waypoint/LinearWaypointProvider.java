@@ -4,13 +4,13 @@ import java.util.AbstractList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
-import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.conversations.Conversation;
 import org.bukkit.conversations.ConversationAbandonedEvent;
@@ -23,10 +23,10 @@ import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.util.Vector;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import net.citizensnpcs.BlockRevisionListener;
 import net.citizensnpcs.Settings.Setting;
 import net.citizensnpcs.api.CitizensAPI;
 import net.citizensnpcs.api.ai.Goal;
@@ -34,7 +34,6 @@ import net.citizensnpcs.api.ai.GoalSelector;
 import net.citizensnpcs.api.ai.Navigator;
 import net.citizensnpcs.api.ai.event.CancelReason;
 import net.citizensnpcs.api.ai.event.NavigatorCallback;
-import net.citizensnpcs.api.astar.pathfinder.MinecraftBlockExaminer;
 import net.citizensnpcs.api.command.CommandContext;
 import net.citizensnpcs.api.command.CommandMessages;
 import net.citizensnpcs.api.command.exception.CommandException;
@@ -48,6 +47,7 @@ import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.editor.Editor;
 import net.citizensnpcs.trait.waypoint.WaypointProvider.EnumerableWaypointProvider;
 import net.citizensnpcs.trait.waypoint.triggers.TriggerEditPrompt;
+import net.citizensnpcs.util.BlockRevisions;
 import net.citizensnpcs.util.Messages;
 import net.citizensnpcs.util.Util;
 
@@ -55,7 +55,7 @@ import net.citizensnpcs.util.Util;
  * An ordered list of {@link Waypoint}s to walk between.
  */
 public class LinearWaypointProvider implements EnumerableWaypointProvider {
-    private final Map<SourceDestinationPair, Iterable<Vector>> cachedPaths = Maps.newHashMap();
+    private final Map<SourceDestinationPair, CachedPath> cachedPaths = Maps.newHashMap();
     @Persist
     private boolean cachePaths = Setting.DEFAULT_CACHE_WAYPOINT_PATHS.asBoolean();
     private LinearWaypointGoal currentGoal;
@@ -240,6 +240,26 @@ public class LinearWaypointProvider implements EnumerableWaypointProvider {
         };
     }
 
+    private static class CachedPath {
+        private final List<Vector> path;
+        private final BlockRevisions.Snapshot revisions;
+        private final long storedAt = System.nanoTime();
+
+        private CachedPath(List<Vector> path, BlockRevisions.Snapshot revisions) {
+            this.path = path;
+            this.revisions = revisions;
+        }
+
+        /**
+         * Paths also expire after {@link Setting#PATH_CACHE_EXPIRY_SECONDS}, to pick up changes made without block
+         * events such as world edits.
+         */
+        private boolean isValid() {
+            return revisions.isValid() && System.nanoTime() - storedAt <= TimeUnit.SECONDS
+                    .toNanos(Setting.PATH_CACHE_EXPIRY_SECONDS.asInt());
+        }
+    }
+
     private final class LinearWaypointEditor extends WaypointEditor {
         Conversation conversation;
         boolean editing = true;
@@ -596,14 +616,14 @@ public class LinearWaypointProvider implements EnumerableWaypointProvider {
                 return false;
             }
             currentDestination = next;
+            final SourceDestinationPair key = new SourceDestinationPair(npcLoc, currentDestination);
             if (cachePaths) {
-                SourceDestinationPair key = new SourceDestinationPair(npcLoc, currentDestination);
-                Iterable<Vector> cached = cachedPaths.get(key);
+                CachedPath cached = cachedPaths.get(key);
                 if (cached != null) {
-                    if (Iterables.size(cached) == 0 || !key.verify(npcLoc.getWorld(), cached)) {
+                    if (!cached.isValid()) {
                         cachedPaths.remove(key);
                     } else {
-                        getNavigator().setTarget(cached);
+                        getNavigator().setTarget(cached.path);
                     }
                 }
             }
@@ -613,14 +633,21 @@ public class LinearWaypointProvider implements EnumerableWaypointProvider {
             getNavigator().getLocalParameters().addSingleUseCallback(new NavigatorCallback() {
                 @Override
                 public void onCompletion(@Nullable CancelReason cancelReason) {
+                    if (cancelReason != null) {
+                        // the cached path may have been blocked by a change that fired no block event
+                        cachedPaths.remove(key);
+                    }
                     if (npc.isSpawned() && currentDestination != null
                             && Util.locationWithinRange(npc.getStoredLocation(), currentDestination.getLocation(),
                                     Setting.DEFAULT_DISTANCE_MARGIN.asDouble() + 1)) {
                         currentDestination.onReach(npc);
                         if (cachePaths && cancelReason == null) {
-                            Iterable<Vector> path = getNavigator().getPathStrategy().getPath();
-                            if (Iterables.size(path) > 0) {
-                                cachedPaths.put(new SourceDestinationPair(npcLoc, currentDestination), path);
+                            Iterable<Vector> planned = getNavigator().getPathStrategy().getPath();
+                            List<Vector> path = planned == null ? null : Lists.newArrayList(planned);
+                            if (path != null && path.size() > 0) {
+                                BlockRevisionListener.register();
+                                cachedPaths.put(key,
+                                        new CachedPath(path, BlockRevisions.snapshot(npcLoc.getWorld().getUID(), path)));
                             }
                         }
                     }
@@ -676,15 +703,5 @@ public class LinearWaypointProvider implements EnumerableWaypointProvider {
             int result = prime + ((from == null) ? 0 : from.hashCode());
             return prime * result + ((to == null) ? 0 : to.hashCode());
         }
-
-        public boolean verify(World world, Iterable<Vector> cached) {
-            for (Vector vector : cached) {
-                if (!MinecraftBlockExaminer
-                        .canStandOn(world.getBlockAt(vector.getBlockX(), vector.getBlockY() - 1, vector.getBlockZ()))) {
-                    return false;
-                }
-            }
-            return true;
-        }
     }
 }
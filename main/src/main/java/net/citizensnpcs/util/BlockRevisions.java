@@ -0,0 +1,132 @@
+package net.citizensnpcs.util;
+
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.util.Vector;
+
+import com.google.common.collect.Maps;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+
+/**
+ * Keeps a revision counter for 16x16x16 chunk sections, which is bumped whenever a block in the section is placed,
+ * broken, updated by physics, moved by a piston or destroyed by an explosion (see
+ * {@link net.citizensnpcs.BlockRevisionListener}). Cached paths can take a {@link Snapshot} of the sections they pass
+ * through and later check that none of them have changed, without looking at any blocks.
+ *
+ * Only sections which have been captured by a snapshot are counted. Once a world counts more than
+ * {@link #MAX_SECTIONS} sections its counters are discarded, invalidating every snapshot of the world, so the counters
+ * can't grow without bound. Changes made without firing block events, for example by world editing plugins, are not
+ * seen.
+ */
+public class BlockRevisions {
+    private BlockRevisions() {
+    }
+
+    public static void changed(Block block) {
+        changed(block.getWorld(), block.getX(), block.getY(), block.getZ());
+    }
+
+    public static void changed(World world, int x, int y, int z) {
+        WorldRevisions revisions = WORLDS.get(world.getUID());
+        if (revisions != null) {
+            // sections which were never captured don't need counting, as later snapshots read the current value
+            revisions.sections.adjustValue(key(x >> 4, y >> 4, z >> 4), 1);
+        }
+    }
+
+    private static long key(int sectionX, int sectionY, int sectionZ) {
+        return ((long) (sectionX & 0x3FFFFF) << 42) | ((long) (sectionZ & 0x3FFFFF) << 20) | (sectionY & 0xFFFFF);
+    }
+
+    /**
+     * Captures the current revisions of every section that the path passes through, including the sections of the
+     * blocks below and above each point.
+     */
+    public static Snapshot snapshot(UUID world, Iterable<Vector> path) {
+        TLongHashSet keys = new TLongHashSet();
+        for (Vector vector : path) {
+            int sectionX = vector.getBlockX() >> 4, sectionZ = vector.getBlockZ() >> 4;
+            int y = vector.getBlockY();
+            keys.add(key(sectionX, (y - 1) >> 4, sectionZ));
+            keys.add(key(sectionX, y >> 4, sectionZ));
+            keys.add(key(sectionX, (y + 1) >> 4, sectionZ));
+        }
+        return snapshot(world, keys.toArray());
+    }
+
+    private static Snapshot snapshot(UUID world, long[] sections) {
+        WorldRevisions revisions = WORLDS.get(world);
+        if (revisions == null || revisions.sections.size() + sections.length > MAX_SECTIONS) {
+            WORLDS.put(world, revisions = new WorldRevisions());
+        }
+        int[] values = new int[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+            if (!revisions.sections.containsKey(sections[i])) {
+                revisions.sections.put(sections[i], 0);
+            }
+            values[i] = revisions.sections.get(sections[i]);
+        }
+        return new Snapshot(world, revisions, sections, values);
+    }
+
+    /**
+     * Captures the current revisions of the given section and the 6 sections sharing a face with it.
+     */
+    public static Snapshot snapshotAround(UUID world, int sectionX, int sectionY, int sectionZ) {
+        return snapshot(world,
+                new long[] { key(sectionX, sectionY, sectionZ), key(sectionX - 1, sectionY, sectionZ),
+                        key(sectionX + 1, sectionY, sectionZ), key(sectionX, sectionY - 1, sectionZ),
+                        key(sectionX, sectionY + 1, sectionZ), key(sectionX, sectionY, sectionZ - 1),
+                        key(sectionX, sectionY, sectionZ + 1) });
+    }
+
+    public static void unload(World world) {
+        WORLDS.remove(world.getUID());
+    }
+
+    public static class Snapshot {
+        private final long[] sections;
+        private final int[] values;
+        private final WorldRevisions world;
+        private final UUID worldUUID;
+
+        private Snapshot(UUID worldUUID, WorldRevisions world, long[] sections, int[] values) {
+            this.worldUUID = worldUUID;
+            this.world = world;
+            this.sections = sections;
+            this.values = values;
+        }
+
+        /**
+         * @return whether no block in any of the captured sections has changed since the snapshot was taken
+         */
+        public boolean isValid() {
+            // the revisions are discarded when the world unloads or counts too many sections, so old snapshots never
+            // match
+            if (WORLDS.get(worldUUID) != world)
+                return false;
+            for (int i = 0; i < sections.length; i++) {
+                if (world.sections.get(sections[i]) != values[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static class WorldRevisions {
+        private final TLongIntHashMap sections = new TLongIntHashMap();
+    }
+
+    /**
+     * The maximum number of sections counted per world. Kept well above the sections captured by a full hierarchical
+     * pathfinding cache, which snapshots 7 sections per cached section, so that the cache doesn't keep discarding the
+     * counters it relies on.
+     */
+    public static final int MAX_SECTIONS = 1 << 19;
+    private static final Map<UUID, WorldRevisions> WORLDS = Maps.newHashMap();
+}
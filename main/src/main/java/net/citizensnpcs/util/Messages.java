@@ -305,6 +305,9 @@ public class Messages {
     public static final String PATHFINDING_OPTIONS_STATIONARY_TICKS_SET = "citizens.commands.npc.pathopt.stationary-ticks-set";
     public static final String PATHFINDING_OPTIONS_USE_NEW_FINDER = "citizens.commands.npc.pathopt.use-new-finder";
     public static final String PATHFINDING_RANGE_SET = "citizens.commands.npc.pathfindingrange.set";
+    public static final String PATH_CACHE_CLEARED = "citizens.commands.citizens.pathcache.cleared";
+    public static final String PATH_CACHE_DISABLED = "citizens.commands.citizens.pathcache.disabled";
+    public static final String PATH_CACHE_STATS = "citizens.commands.citizens.pathcache.stats";
     public static final String PAUSEPATHFINDING_RANGE_SET = "citizens.commands.npc.pausepathfinding.pause-range-set";
     public static final String PAUSEPATHFINDING_RIGHTCLICK_SET = "citizens.commands.npc.pausepathfinding.rightclick-set";
     public static final String PAUSEPATHFINDING_RIGHTCLICK_UNSET = "citizens.commands.npc.pausepathfinding.rightclick-unset";
@@ -324,6 +327,10 @@ public class Messages {
     public static final String POWERED_SET = "citizens.commands.npc.powered.set";
     public static final String POWERED_STOPPED = "citizens.commands.npc.powered.stopped";
     public static final String PROFESSION_SET = "citizens.commands.npc.profession.set";
+    public static final String PROFILE_ALREADY_RUNNING = "citizens.commands.citizens.profile.already-running";
+    public static final String PROFILE_FINISHED = "citizens.commands.citizens.profile.finished";
+    public static final String PROFILE_NO_SAMPLES = "citizens.commands.citizens.profile.no-samples";
+    public static final String PROFILE_STARTED = "citizens.commands.citizens.profile.started";
     public static final String PUFFERFISH_STATE_SET = "citizens.commands.npc.pufferfish.state-set";
     public static final String RABBIT_TYPE_SET = "citizens.commands.npc.rabbittype.type-set";
     public static final String REMOVE_INCORRECT_SYNTAX = "citizens.commands.npc.remove.incorrect-syntax";
@@ -334,6 +341,10 @@ public class Messages {
     public static final String RESPAWN_DELAY_SET = "citizens.commands.npc.respawn.delay-set";
     public static final String SADDLED_SET = "citizens.editors.equipment.saddled-set";
     public static final String SADDLED_STOPPED = "citizens.editors.equipment.saddled-stopped";
+    public static final String SAVE_SLOWER_THAN_INTERVAL = "citizens.saves.slower-than-interval";
+    public static final String SAVE_STATUS_EMPTY = "citizens.commands.citizens.save.status-empty";
+    public static final String SAVE_STILL_IN_FLIGHT = "citizens.saves.still-in-flight";
+    public static final String SAVE_STILL_WRITING = "citizens.saves.still-writing";
     public static final String SELECTION_PROMPT = "citizens.editors.selection.start-prompt";
     public static final String SELECTION_PROMPT_INVALID_CHOICE = "citizens.conversations.selection.invalid-choice";
     public static final String SHEARED_SET = "citizens.editors.equipment.sheared-set";
@@ -361,6 +372,7 @@ public class Messages {
     public static final String SPEED_MODIFIER_SET = "citizens.commands.npc.speed.set";
     public static final String SPEED_TRIGGER_PROMPT = "citizens.editors.waypoints.triggers.speed.prompt";
     public static final String SPELL_SET = "citizens.commands.npc.spellcaster.spell-set";
+    public static final String STORAGE_MIGRATED = "citizens.saves.migrated";
     public static final String SWIMMING_SET = "citizens.commands.npc.swim.set";
     public static final String SWIMMING_UNSET = "citizens.commands.npc.swim.unset";
     public static final String TARGETABLE_SET = "citizens.commands.npc.targetable.set";
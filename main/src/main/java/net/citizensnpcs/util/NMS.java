@@ -60,7 +60,12 @@ public class NMS {
     }
 
     public static void activate(Entity entity) {
-        BRIDGE.activate(entity);
+        NPCProfiler.push();
+        try {
+            BRIDGE.activate(entity);
+        } finally {
+            NPCProfiler.popSection("NMS.activate");
+        }
     }
 
     public static boolean addEntityToWorld(org.bukkit.entity.Entity entity, SpawnReason custom) {
@@ -508,7 +513,12 @@ public class NMS {
     }
 
     public static void look(org.bukkit.entity.Entity entity, Location to, boolean headOnly, boolean immediate) {
-        BRIDGE.look(entity, to, headOnly, immediate);
+        NPCProfiler.push();
+        try {
+            BRIDGE.look(entity, to, headOnly, immediate);
+        } finally {
+            NPCProfiler.popSection("NMS.look");
+        }
     }
 
     public static void look(org.bukkit.entity.Entity bhandle, org.bukkit.entity.Entity btarget) {
@@ -532,7 +542,12 @@ public class NMS {
     }
 
     public static void playAnimation(PlayerAnimation animation, Player player, int radius) {
-        BRIDGE.playAnimation(animation, player, radius);
+        NPCProfiler.push();
+        try {
+            BRIDGE.playAnimation(animation, player, radius);
+        } finally {
+            NPCProfiler.popSection("NMS.playAnimation");
+        }
     }
 
     public static Runnable playerTicker(Player entity) {
@@ -573,7 +588,12 @@ public class NMS {
     }
 
     public static void sendRotationNearby(Entity entity, float bodyYaw, float headYaw, float pitch) {
-        BRIDGE.sendRotationNearby(entity, bodyYaw, headYaw, pitch);
+        NPCProfiler.push();
+        try {
+            BRIDGE.sendRotationNearby(entity, bodyYaw, headYaw, pitch);
+        } finally {
+            NPCProfiler.popSection("NMS.sendRotationNearby");
+        }
     }
 
     public static boolean sendTabListAdd(Player recipient, Player listPlayer) {
@@ -613,7 +633,12 @@ public class NMS {
     }
 
     public static void setCustomName(Entity entity, Object component, String string) {
-        BRIDGE.setCustomName(entity, component, string);
+        NPCProfiler.push();
+        try {
+            BRIDGE.setCustomName(entity, component, string);
+        } finally {
+            NPCProfiler.popSection("NMS.setCustomName");
+        }
     }
 
     public static void setDestination(org.bukkit.entity.Entity entity, double x, double y, double z, float speed) {
@@ -629,11 +654,21 @@ public class NMS {
     }
 
     public static void setHeadYaw(org.bukkit.entity.Entity entity, float yaw) {
-        BRIDGE.setHeadYaw(entity, yaw);
+        NPCProfiler.push();
+        try {
+            BRIDGE.setHeadYaw(entity, yaw);
+        } finally {
+            NPCProfiler.popSection("NMS.setHeadYaw");
+        }
     }
 
     public static void setKnockbackResistance(org.bukkit.entity.LivingEntity entity, double d) {
-        BRIDGE.setKnockbackResistance(entity, d);
+        NPCProfiler.push();
+        try {
+            BRIDGE.setKnockbackResistance(entity, d);
+        } finally {
+            NPCProfiler.popSection("NMS.setKnockbackResistance");
+        }
     }
 
     public static void setLocationDirectly(Entity entity, Location location) {
@@ -732,7 +767,12 @@ public class NMS {
     }
 
     public static void trySwim(org.bukkit.entity.Entity entity, float power) {
-        BRIDGE.trySwim(entity, power);
+        NPCProfiler.push();
+        try {
+            BRIDGE.trySwim(entity, power);
+        } finally {
+            NPCProfiler.popSection("NMS.trySwim");
+        }
     }
 
     public static void updateInventoryTitle(Player player, InventoryView view, String newTitle) {
@@ -0,0 +1,81 @@
+package net.citizensnpcs.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import net.citizensnpcs.api.npc.NPC;
+
+/**
+ * Indexes spawned {@link NPC}s by the chunk and world they are in, so that chunk and world events only need to look at
+ * the NPCs they affect. The index is updated when an NPC spawns, despawns or teleports, and every tick while spawned.
+ */
+public class NPCChunkIndex {
+    private NPCChunkIndex() {
+    }
+
+    /**
+     * @return a copy of the NPCs last seen in the given chunk
+     */
+    public static Collection<NPC> getNPCs(ChunkCoord coord) {
+        Set<NPC> npcs = BY_CHUNK.get(coord);
+        return npcs == null ? Collections.emptyList() : ImmutableList.copyOf(npcs);
+    }
+
+    /**
+     * @return a copy of the NPCs last seen in the given world
+     */
+    public static Collection<NPC> getNPCs(World world) {
+        Set<NPC> npcs = BY_WORLD.get(world.getUID());
+        return npcs == null ? Collections.emptyList() : ImmutableList.copyOf(npcs);
+    }
+
+    public static void remove(NPC npc) {
+        ChunkCoord coord = CHUNKS.remove(npc);
+        if (coord == null)
+            return;
+        removeFrom(BY_CHUNK, coord, npc);
+        removeFrom(BY_WORLD, coord.worldUUID, npc);
+    }
+
+    private static <K> void removeFrom(Map<K, Set<NPC>> map, K key, NPC npc) {
+        Set<NPC> npcs = map.get(key);
+        if (npcs == null)
+            return;
+        npcs.remove(npc);
+        if (npcs.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * Updates the chunk of the NPC. Cheap to call if the NPC has not changed chunk.
+     */
+    public static void update(NPC npc, Location location) {
+        if (location == null || location.getWorld() == null)
+            return;
+        UUID world = location.getWorld().getUID();
+        int x = location.getBlockX() >> 4, z = location.getBlockZ() >> 4;
+        ChunkCoord current = CHUNKS.get(npc);
+        if (current != null && current.x == x && current.z == z && current.worldUUID.equals(world))
+            return;
+        remove(npc);
+        ChunkCoord coord = new ChunkCoord(world, x, z);
+        CHUNKS.put(npc, coord);
+        BY_CHUNK.computeIfAbsent(coord, k -> Sets.newLinkedHashSet()).add(npc);
+        BY_WORLD.computeIfAbsent(world, k -> Sets.newLinkedHashSet()).add(npc);
+    }
+
+    private static final Map<ChunkCoord, Set<NPC>> BY_CHUNK = Maps.newHashMap();
+    private static final Map<UUID, Set<NPC>> BY_WORLD = Maps.newHashMap();
+    private static final Map<NPC, ChunkCoord> CHUNKS = Maps.newHashMap();
+}
@@ -0,0 +1,228 @@
+package net.citizensnpcs.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.google.common.collect.Maps;
+
+import net.citizensnpcs.api.CitizensAPI;
+import net.citizensnpcs.api.npc.NPC;
+import net.citizensnpcs.api.util.Messaging;
+
+/**
+ * Instruments NPC ticking code with nanosecond timings. Code paths wrap the section to measure with {@link #push()} and
+ * one of the <code>pop</code> methods, which record the elapsed time and (where supported by the JVM) the number of
+ * bytes allocated into a histogram keyed by trait class, NPC id or section name. While no profiling session is
+ * running, both calls return immediately.
+ *
+ * Only the main server thread is profiled.
+ */
+public class NPCProfiler {
+    private NPCProfiler() {
+    }
+
+    private static long allocatedBytes() {
+        if (ALLOCATION_BEAN == null)
+            return 0;
+        return ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static boolean isProfiling() {
+        return profiling;
+    }
+
+    private static void pop(Map<Object, Timings> timings, Object key) {
+        if (!profiling || depth == 0 || Thread.currentThread() != thread)
+            return;
+        depth--;
+        long nanos = System.nanoTime() - START_NANOS[depth];
+        long bytes = allocatedBytes() - START_BYTES[depth];
+        Timings timing = timings.get(key);
+        if (timing == null) {
+            timings.put(key, timing = new Timings());
+        }
+        timing.record(nanos, bytes);
+    }
+
+    public static void popNPC(NPC npc) {
+        pop(NPCS, npc.getId());
+    }
+
+    /**
+     * Records the time since the last {@link #push()} under a named section, such as an NMS bridge call.
+     */
+    public static void popSection(String section) {
+        pop(SECTIONS, section);
+    }
+
+    public static void popTrait(Class<?> trait) {
+        pop(TRAITS, trait);
+    }
+
+    /**
+     * Starts timing a new section. Must be paired with a <code>pop</code> call.
+     */
+    public static void push() {
+        if (!profiling || Thread.currentThread() != thread)
+            return;
+        if (depth == START_NANOS.length) {
+            // unbalanced push, most likely caused by an exception
+            depth = 0;
+        }
+        START_NANOS[depth] = System.nanoTime();
+        START_BYTES[depth] = allocatedBytes();
+        depth++;
+    }
+
+    private static void report(CommandSender sender, String header, Map<Object, Timings> timings,
+            Function<Object, String> name) {
+        Messaging.send(sender, StringHelper.wrapHeader(header));
+        if (timings.isEmpty()) {
+            Messaging.sendTr(sender, Messages.PROFILE_NO_SAMPLES);
+            return;
+        }
+        List<Map.Entry<Object, Timings>> sorted = timings.entrySet().stream()
+                .sorted(Comparator.comparingLong(e -> -e.getValue().totalNanos)).limit(TOP_OFFENDERS)
+                .collect(Collectors.toList());
+        for (Map.Entry<Object, Timings> entry : sorted) {
+            Timings timing = entry.getValue();
+            String allocations = ALLOCATION_BEAN == null ? "?" : Long.toString(timing.totalBytes / timing.count);
+            Messaging.send(sender,
+                    String.format("<yellow>%s<green>: %.2fms total, %d calls, p50 %.1fus, p99 %.1fus, %s B/call",
+                            name.apply(entry.getKey()), timing.totalNanos / 1000000D, timing.count,
+                            timing.percentile(0.5) / 1000D, timing.percentile(0.99) / 1000D, allocations));
+        }
+    }
+
+    /**
+     * Starts a profiling session which runs for the given number of seconds before reporting the results to the
+     * sender.
+     *
+     * @return false if a session is already running
+     */
+    public static boolean start(CommandSender sender, int seconds) {
+        if (profiling)
+            return false;
+        TRAITS.clear();
+        NPCS.clear();
+        SECTIONS.clear();
+        depth = 0;
+        thread = Thread.currentThread();
+        startedAt = System.nanoTime();
+        profiling = true;
+        task = Bukkit.getScheduler().runTaskLater(CitizensAPI.getPlugin(), () -> stop(sender), seconds * 20L);
+        return true;
+    }
+
+    /**
+     * Resets any unbalanced sections. Should be called once at the start of every server tick.
+     */
+    public static void startTick() {
+        depth = 0;
+    }
+
+    /**
+     * Stops the current profiling session and reports the top offenders to the sender.
+     */
+    public static void stop(CommandSender sender) {
+        if (!profiling)
+            return;
+        profiling = false;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        Messaging.sendTr(sender, Messages.PROFILE_FINISHED, (System.nanoTime() - startedAt) / 1000000000D);
+        report(sender, "<green>Traits", TRAITS, key -> ((Class<?>) key).getSimpleName());
+        report(sender, "<green>NPCs", NPCS, key -> {
+            NPC npc = CitizensAPI.getNPCRegistry().getById((Integer) key);
+            return npc == null ? key.toString() : npc.getName() + " (" + key + ")";
+        });
+        report(sender, "<green>Sections", SECTIONS, Object::toString);
+        TRAITS.clear();
+        NPCS.clear();
+        SECTIONS.clear();
+    }
+
+    /**
+     * A log-linear histogram of nanosecond timings with four sub-buckets per power of two, giving percentiles within
+     * 25% of the true value.
+     */
+    private static class Timings {
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long totalBytes;
+        private long totalNanos;
+
+        private long percentile(double percentile) {
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return upperBound(i);
+            }
+            return upperBound(buckets.length - 1);
+        }
+
+        private void record(long nanos, long bytes) {
+            buckets[bucket(Math.max(0, nanos))]++;
+            count++;
+            totalNanos += nanos;
+            totalBytes += Math.max(0, bytes);
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < 4)
+                return (int) nanos;
+            int msb = 63 - Long.numberOfLeadingZeros(nanos);
+            return (msb - 1) * 4 + (int) ((nanos >>> (msb - 2)) & 3);
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < 4)
+                return bucket;
+            int shift = bucket / 4 - 1;
+            return ((4L + bucket % 4 + 1) << shift) - 1;
+        }
+
+        private static final int BUCKETS = 248;
+    }
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN;
+    private static int depth;
+    private static final Map<Object, Timings> NPCS = Maps.newHashMap();
+    private static boolean profiling;
+    private static final Map<Object, Timings> SECTIONS = Maps.newHashMap();
+    private static final long[] START_BYTES = new long[32];
+    private static final long[] START_NANOS = new long[32];
+    private static long startedAt;
+    private static BukkitTask task;
+    private static Thread thread;
+    private static final int TOP_OFFENDERS = 8;
+    private static final Map<Object, Timings> TRAITS = Maps.newHashMap();
+
+    static {
+        com.sun.management.ThreadMXBean bean = null;
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+                bean = (com.sun.management.ThreadMXBean) threads;
+                bean.setThreadAllocatedMemoryEnabled(true);
+            }
+        } catch (Throwable t) {
+            bean = null;
+        }
+        ALLOCATION_BEAN = bean;
+    }
+}
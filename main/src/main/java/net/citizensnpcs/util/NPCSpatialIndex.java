@@ -0,0 +1,131 @@
+package net.citizensnpcs.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Location;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import ch.ethz.globis.phtree.PhTree;
+import ch.ethz.globis.phtree.PhTree.PhKnnQuery;
+import ch.ethz.globis.phtree.PhTree.PhQuery;
+import net.citizensnpcs.api.npc.NPC;
+
+/**
+ * A per-world spatial index of spawned {@link NPC} positions at block resolution, backed by a PH-tree. Positions are
+ * updated incrementally as NPCs move so that nearby NPC queries don't need to scan every NPC or entity.
+ */
+public class NPCSpatialIndex {
+    private NPCSpatialIndex() {
+    }
+
+    private static double distanceSquared(NPC npc, Location location) {
+        Location loc = npc.getEntity().getLocation(CACHE_LOCATION);
+        return loc.getWorld() == location.getWorld() ? loc.distanceSquared(location) : Double.MAX_VALUE;
+    }
+
+    /**
+     * @return the spawned NPCs within the given radius of the location
+     */
+    public static List<NPC> getNearbyNPCs(Location location, double radius) {
+        List<NPC> result = new ArrayList<NPC>();
+        PhTree<List<NPC>> tree = TREES.get(location.getWorld().getUID());
+        if (tree == null)
+            return result;
+        long range = (long) Math.ceil(radius);
+        long x = location.getBlockX(), y = location.getBlockY(), z = location.getBlockZ();
+        PhQuery<List<NPC>> query = tree.query(new long[] { x - range, y - range, z - range },
+                new long[] { x + range, y + range, z + range });
+        double radiusSquared = radius * radius;
+        while (query.hasNext()) {
+            for (NPC npc : query.nextValue()) {
+                if (npc.isSpawned() && distanceSquared(npc, location) <= radiusSquared) {
+                    result.add(npc);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return up to <code>count</code> spawned NPCs closest to the location, nearest first
+     */
+    public static List<NPC> getNearestNPCs(Location location, int count) {
+        List<NPC> result = new ArrayList<NPC>();
+        PhTree<List<NPC>> tree = TREES.get(location.getWorld().getUID());
+        if (tree == null || count <= 0)
+            return result;
+        PhKnnQuery<List<NPC>> query = tree.nearestNeighbour(count, location.getBlockX(), location.getBlockY(),
+                location.getBlockZ());
+        while (query.hasNext()) {
+            for (NPC npc : query.nextValue()) {
+                if (npc.isSpawned()) {
+                    result.add(npc);
+                }
+            }
+        }
+        // keys are at block resolution and may hold several NPCs, so refine using exact positions
+        result.sort(Comparator.comparingDouble(npc -> distanceSquared(npc, location)));
+        return result.size() > count ? Lists.newArrayList(result.subList(0, count)) : result;
+    }
+
+    public static void remove(NPC npc) {
+        Entry entry = ENTRIES.remove(npc);
+        if (entry == null)
+            return;
+        PhTree<List<NPC>> tree = TREES.get(entry.world);
+        if (tree == null)
+            return;
+        List<NPC> bucket = tree.get(entry.key);
+        if (bucket == null)
+            return;
+        bucket.remove(npc);
+        if (bucket.isEmpty()) {
+            tree.remove(entry.key);
+        }
+        if (tree.size() == 0) {
+            TREES.remove(entry.world);
+        }
+    }
+
+    /**
+     * Updates the position of the NPC. Cheap to call if the NPC has not changed block.
+     */
+    public static void update(NPC npc, Location location) {
+        if (location == null || location.getWorld() == null)
+            return;
+        UUID world = location.getWorld().getUID();
+        long x = location.getBlockX(), y = location.getBlockY(), z = location.getBlockZ();
+        Entry entry = ENTRIES.get(npc);
+        if (entry != null && entry.key[0] == x && entry.key[1] == y && entry.key[2] == z && entry.world.equals(world))
+            return;
+        remove(npc);
+        entry = new Entry(world, new long[] { x, y, z });
+        ENTRIES.put(npc, entry);
+        PhTree<List<NPC>> tree = TREES.computeIfAbsent(world, k -> PhTree.create(3));
+        List<NPC> bucket = tree.get(entry.key);
+        if (bucket == null) {
+            tree.put(entry.key, bucket = Lists.newArrayListWithCapacity(1));
+        }
+        bucket.add(npc);
+    }
+
+    private static class Entry {
+        private final long[] key;
+        private final UUID world;
+
+        private Entry(UUID world, long[] key) {
+            this.world = world;
+            this.key = key;
+        }
+    }
+
+    private static final Location CACHE_LOCATION = new Location(null, 0, 0, 0);
+    private static final Map<NPC, Entry> ENTRIES = Maps.newHashMap();
+    private static final Map<UUID, PhTree<List<NPC>>> TREES = Maps.newHashMap();
+}
@@ -0,0 +1,116 @@
+package net.citizensnpcs.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+
+import net.citizensnpcs.Settings.Setting;
+import net.citizensnpcs.npc.CitizensNPC;
+
+/**
+ * Enforces a global per-tick time budget for NPC updates. Once the budget for the current tick has been used up,
+ * further NPC updates are deferred into a first-in first-out queue which is drained at the start of the next tick
+ * before any new work. NPCs that have been deferred for too long are always run regardless of the budget.
+ */
+public class NPCTickBudget {
+    private NPCTickBudget() {
+    }
+
+    public static void clear() {
+        DEFERRED.clear();
+        RAN_FROM_QUEUE.clear();
+        spentNanos = 0;
+    }
+
+    /**
+     * Checks whether the given NPC update should be deferred to a later tick. If the NPC is already deferred, the
+     * elapsed ticks are merged into the existing entry so it keeps its place in the queue.
+     *
+     * @return true if the NPC should not update this tick
+     */
+    public static boolean defer(CitizensNPC npc, int elapsedTicks) {
+        if (RAN_FROM_QUEUE.contains(npc))
+            return true;
+        DeferredUpdate queued = DEFERRED.get(npc);
+        if (queued != null) {
+            queued.elapsedTicks += elapsedTicks;
+            return true;
+        }
+        if (hasTimeRemaining())
+            return false;
+        DEFERRED.put(npc, new DeferredUpdate(elapsedTicks, currentTick));
+        return true;
+    }
+
+    /**
+     * Runs deferred NPC updates in the order they were deferred until the budget runs out. Updates that have waited
+     * longer than the configured maximum number of ticks are always run.
+     */
+    public static void drainDeferred() {
+        if (DEFERRED.isEmpty())
+            return;
+        int maxDeferredTicks = Setting.NPC_TICK_BUDGET_MAX_DEFERRED_TICKS.asInt();
+        Iterator<Map.Entry<CitizensNPC, DeferredUpdate>> itr = DEFERRED.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry<CitizensNPC, DeferredUpdate> entry = itr.next();
+            boolean starving = currentTick - entry.getValue().deferredAt >= maxDeferredTicks;
+            if (!starving && !hasTimeRemaining())
+                break;
+            itr.remove();
+            CitizensNPC npc = entry.getKey();
+            if (!npc.isSpawned())
+                continue;
+            RAN_FROM_QUEUE.add(npc);
+            long start = System.nanoTime();
+            npc.runUpdate(entry.getValue().elapsedTicks);
+            record(System.nanoTime() - start);
+        }
+    }
+
+    public static int getDeferredCount() {
+        return DEFERRED.size();
+    }
+
+    /**
+     * @return whether there is time left in the current tick's budget. Always true if the budget is disabled.
+     */
+    public static boolean hasTimeRemaining() {
+        double budget = Setting.NPC_TICK_BUDGET_MS.asDouble();
+        return budget <= 0 || spentNanos < budget * 1000000;
+    }
+
+    public static void record(long nanos) {
+        spentNanos += nanos;
+    }
+
+    public static void remove(CitizensNPC npc) {
+        DEFERRED.remove(npc);
+    }
+
+    /**
+     * Resets the budget. Should be called once at the start of every server tick.
+     */
+    public static void startTick() {
+        currentTick++;
+        spentNanos = 0;
+        RAN_FROM_QUEUE.clear();
+    }
+
+    private static class DeferredUpdate {
+        private final int deferredAt;
+        private int elapsedTicks;
+
+        private DeferredUpdate(int elapsedTicks, int deferredAt) {
+            this.elapsedTicks = elapsedTicks;
+            this.deferredAt = deferredAt;
+        }
+    }
+
+    private static int currentTick;
+    private static final Map<CitizensNPC, DeferredUpdate> DEFERRED = new LinkedHashMap<>();
+    private static final Set<CitizensNPC> RAN_FROM_QUEUE = Sets.newHashSet();
+    private static long spentNanos;
+}
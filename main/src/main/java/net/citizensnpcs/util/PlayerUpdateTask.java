@@ -14,6 +14,8 @@ import net.citizensnpcs.api.npc.NPC;
 import net.citizensnpcs.api.util.Messaging;
 import net.citizensnpcs.npc.CitizensNPC;
 import net.citizensnpcs.npc.ai.NPCHolder;
+import net.citizensnpcs.npc.ai.PathPlanningScheduler;
+import net.citizensnpcs.npc.ai.SectionGraph;
 import net.citizensnpcs.trait.PacketNPC;
 
 public class PlayerUpdateTask extends BukkitRunnable {
@@ -21,10 +23,16 @@ public class PlayerUpdateTask extends BukkitRunnable {
     public void cancel() {
         super.cancel();
         PLAYERS.clear();
+        NPCTickBudget.clear();
+        PathPlanningScheduler.clear();
     }
 
     @Override
     public void run() {
+        NPCTickBudget.startTick();
+        PathPlanningScheduler.startTick();
+        SectionGraph.startTick();
+        NPCProfiler.startTick();
         for (Entity entity : PLAYERS_PENDING_REMOVE) {
             PLAYERS.remove(entity.getUniqueId());
         }
@@ -38,6 +46,7 @@ public class PlayerUpdateTask extends BukkitRunnable {
                 rm.entity.remove();
             }
             if (next.hasTrait(PacketNPC.class)) {
+                // always updated, as hibernating NPCs are woken up from their update
                 PLAYERS.put(entity.getUniqueId(), new PlayerTick(entity, () -> ((CitizensNPC) next).update()));
             } else {
                 PLAYERS.put(entity.getUniqueId(), new PlayerTick((Player) entity));
@@ -46,6 +55,7 @@ public class PlayerUpdateTask extends BukkitRunnable {
         PLAYERS_PENDING_ADD.clear();
         PLAYERS_PENDING_REMOVE.clear();
 
+        NPCTickBudget.drainDeferred();
         PLAYERS.values().forEach(Runnable::run);
     }
 
@@ -59,13 +69,24 @@ public class PlayerUpdateTask extends BukkitRunnable {
         }
 
         public PlayerTick(Player player) {
-            this(player, NMS.playerTicker(player));
+            this(player, skipWhileHibernating(player, NMS.playerTicker(player)));
         }
 
         @Override
         public void run() {
             tick.run();
         }
+
+        private static Runnable skipWhileHibernating(Player player, Runnable tick) {
+            NPC npc = ((NPCHolder) player).getNPC();
+            if (!(npc instanceof CitizensNPC))
+                return tick;
+            return () -> {
+                if (!((CitizensNPC) npc).isHibernating()) {
+                    tick.run();
+                }
+            };
+        }
     }
 
     public static void deregisterPlayer(org.bukkit.entity.Entity entity) {